@@ -1,11 +1,14 @@
 package com.antares.db.backend;
 
+import java.util.function.Supplier;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.antares.db.backend.common.EvictionPolicy;
 import com.antares.db.backend.dm.DataManager;
 import com.antares.db.backend.server.Server;
 import com.antares.db.backend.tbm.TableManager;
@@ -27,11 +30,15 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("io", true, "-io channel|mmap");
+        options.addOption("cache", true, "-cache lru|2q");
+        options.addOption("commit", true, "-commit sync|async");
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
         if (cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")), parseMmap(cmd.getOptionValue("io")),
+                    parseCachePolicy(cmd.getOptionValue("cache")), parseAsyncCommit(cmd.getOptionValue("commit")));
             return;
         }
         if (cmd.hasOption("create")) {
@@ -50,10 +57,12 @@ public class Launcher {
         dm.close();
     }
 
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, long mem, boolean mmap, Supplier<EvictionPolicy> policy,
+            boolean asyncCommit) {
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
-        VersionManager vm = new VersionManagerImpl(tm, dm);
+        DataManager dm = DataManager.open(path, mem, tm, mmap, policy);
+        VersionManagerImpl vm = new VersionManagerImpl(tm, dm);
+        vm.setAsyncCommit(asyncCommit);
         TableManager tbm = TableManager.open(path, vm, dm);
         new Server(port, tbm).start();
     }
@@ -80,4 +89,46 @@ public class Launcher {
         }
         return DEFAULT_MEM;
     }
+
+    /**
+     * 数据库文件的访问方式，channel(默认)或mmap
+     */
+    private static boolean parseMmap(String ioStr) {
+        if (ioStr == null || "".equals(ioStr) || "channel".equals(ioStr)) {
+            return false;
+        }
+        if ("mmap".equals(ioStr)) {
+            return true;
+        }
+        Panic.panic(Error.InvalidIOModeException);
+        return false;
+    }
+
+    /**
+     * 页面缓存的替换策略，lru(默认)或2q
+     */
+    private static Supplier<EvictionPolicy> parseCachePolicy(String policyStr) {
+        if (policyStr == null || "".equals(policyStr) || "lru".equals(policyStr)) {
+            return EvictionPolicy.lru();
+        }
+        if ("2q".equals(policyStr)) {
+            return EvictionPolicy.twoQueue();
+        }
+        Panic.panic(Error.InvalidCachePolicyException);
+        return null;
+    }
+
+    /**
+     * 事务的提交方式，sync(默认)或async，async时提交不等待日志持久化，崩溃时可能丢失最近约100ms内提交的事务
+     */
+    private static boolean parseAsyncCommit(String commitStr) {
+        if (commitStr == null || "".equals(commitStr) || "sync".equals(commitStr)) {
+            return false;
+        }
+        if ("async".equals(commitStr)) {
+            return true;
+        }
+        Panic.panic(Error.InvalidCommitModeException);
+        return false;
+    }
 }
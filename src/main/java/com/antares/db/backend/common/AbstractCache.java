@@ -1,123 +1,423 @@
 package com.antares.db.backend.common;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import com.antares.db.common.Error;
 
+/**
+ * 引用计数 + 可替换驱逐策略的缓存框架
+ *
+ * 有容量限制时(maxResource>0)，引用计数归零的资源不会立即写回，而是继续驻留在缓存中，
+ * 直到缓存已满、需要为新资源腾出位置时，才由EvictionPolicy(默认LRU)选出未被引用的资源驱逐并调用releaseForCache写回
+ * 无容量限制时(maxResource=0)，没有内存压力可言，引用计数归零即写回
+ *
+ * key空间按哈希划分到SEGMENTS个分段，每个分段有独立的锁，命中路径只锁一个分段；
+ * maxResource是所有分段共享的全局上限，由count统一计数
+ */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache; // 实际缓存的数据
-    private HashMap<Long, Integer> references; // 引用计数
-    private HashMap<Long, Boolean> getting; // 正在被获取的数据
+    // 缓存已满且没有可驱逐的资源时，最长的等待时间
+    private static final long MAX_WAIT_MILLIS = 3000;
+    // 分段数，必须是2的幂
+    private static final int SEGMENTS = 16;
 
+    private class Segment {
+        Lock lock = new ReentrantLock();
+        HashMap<Long, T> cache = new HashMap<>(); // 实际缓存的数据
+        HashMap<Long, Integer> references = new HashMap<>(); // 引用计数
+        HashMap<Long, CompletableFuture<T>> getting = new HashMap<>(); // 正在被获取(或正在被写回)的数据，其他请求该资源的线程阻塞在future上
+        EvictionPolicy policy = policyFactory.get(); // 驻留资源的驱逐顺序
+    }
+
+    private Supplier<EvictionPolicy> policyFactory;
+
+    private List<Segment> segments;
     private int maxResource; // 最大缓存资源数（当maxResource=0时表示无限制）
-    private int count = 0; // 当前缓存资源数
-    private Lock lock;
+    private AtomicInteger count; // 当前缓存资源数（包括正在获取的）
+
+    // 缓存已满时的等待
+    private Lock waitLock;
+    private Condition released; // 有资源变为可驱逐时唤醒等待的线程
+    private AtomicInteger waiters; // 正在等待的线程数，为0时释放资源什么都不用做
+    private AtomicLong releaseEpoch; // 有线程等待时，每次有资源变为可驱逐自增，避免丢失唤醒
 
     public AbstractCache(int maxResource) {
+        this(maxResource, EvictionPolicy.lru());
+    }
+
+    public AbstractCache(int maxResource, Supplier<EvictionPolicy> policyFactory) {
         this.maxResource = maxResource;
-        this.cache = new HashMap<>();
-        this.references = new HashMap<>();
-        this.getting = new HashMap<>();
-        this.lock = new ReentrantLock();
+        this.policyFactory = policyFactory;
+        this.count = new AtomicInteger(0);
+        this.segments = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new Segment());
+        }
+        this.waitLock = new ReentrantLock();
+        this.released = waitLock.newCondition();
+        this.waiters = new AtomicInteger(0);
+        this.releaseEpoch = new AtomicLong(0);
     }
 
     protected T get(long key) throws Exception {
+        int idx = segmentIndex(key);
+        Segment seg = segments.get(idx);
+        CompletableFuture<T> future;
         while (true) {
-            lock.lock();
-            // 请求的资源(其数据源)正在被其他线程获取
-            if (getting.containsKey(key)) {
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
-                }
+            seg.lock.lock();
+            // 请求的资源(其数据源)正在被其他线程获取，等待其获取完成后重试
+            CompletableFuture<T> loading = seg.getting.get(key);
+            if (loading != null) {
+                seg.lock.unlock();
+                awaitLoading(loading);
                 continue;
             }
 
-            if (cache.containsKey(key)) {
+            if (seg.cache.containsKey(key)) {
                 // 缓存命中
-                T res = cache.get(key);
-                references.merge(key, 1, Integer::sum);
-                lock.unlock();
+                T res = seg.cache.get(key);
+                int ref = seg.references.get(key);
+                seg.policy.access(key);
+                seg.references.put(key, ref + 1);
+                seg.lock.unlock();
                 return res;
             }
 
-            // 缓存未命中
-            // 缓存已满（当maxResource=0时表示无限制）
-            if (maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw Error.CacheFullException;
-            }
-
-            // 尝试获取该资源
-            count++;
-            getting.put(key, true);
-            lock.unlock();
+            // 缓存未命中，先登记为正在获取，再在分段锁外申请容量
+            future = new CompletableFuture<>();
+            seg.getting.put(key, future);
+            seg.lock.unlock();
             break;
         }
 
         T obj = null;
+        boolean reserved = false;
         try {
+            reserve(idx);
+            reserved = true;
             obj = getForCache(key);
         } catch (Exception e) {
-            lock.lock();
-            getting.remove(key);
-            count--;
-            lock.unlock();
+            seg.lock.lock();
+            seg.getting.remove(key);
+            seg.lock.unlock();
+            if (reserved) {
+                count.decrementAndGet();
+                signalReleased();
+            }
+            // 获取失败，所有等待者都会收到同一个异常
+            future.completeExceptionally(e);
             throw e;
         }
 
-        lock.lock();
-        cache.put(key, obj);
-        references.put(key, 1);
-        getting.remove(key);
-        lock.unlock();
+        seg.lock.lock();
+        seg.cache.put(key, obj);
+        seg.references.put(key, 1);
+        seg.policy.admit(key);
+        seg.getting.remove(key);
+        seg.lock.unlock();
+        future.complete(obj);
 
         return obj;
     }
 
+    /**
+     * 把数据源中还不存在的新资源obj直接装入缓存，不调用getForCache，装入后不持有引用
+     * 没有空余容量又没有可驱逐的资源时不等待，而是直接调用releaseForCache把obj写回数据源，
+     * 写回期间该key登记为正在获取，请求它的线程会等待写回完成后再从数据源加载
+     */
+    protected void put(long key, T obj) {
+        int idx = segmentIndex(key);
+        Segment seg = segments.get(idx);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        while (true) {
+            seg.lock.lock();
+            CompletableFuture<T> loading = seg.getting.get(key);
+            if (loading != null) {
+                seg.lock.unlock();
+                loading.handle((res, e) -> null).join();
+                continue;
+            }
+            if (seg.cache.containsKey(key)) {
+                // 数据源中还没有这个资源，缓存中的只能是并发的预读从数据源读出的空资源，直接替换
+                seg.cache.put(key, obj);
+                seg.policy.access(key);
+                seg.lock.unlock();
+                return;
+            }
+            seg.getting.put(key, future);
+            seg.lock.unlock();
+            break;
+        }
+
+        if (maxResource > 0 && tryReserve(idx)) {
+            seg.lock.lock();
+            seg.cache.put(key, obj);
+            seg.references.put(key, 0);
+            seg.policy.admit(key);
+            seg.getting.remove(key);
+            seg.lock.unlock();
+            future.complete(obj);
+            signalReleased();
+            return;
+        }
+
+        try {
+            releaseForCache(obj);
+        } finally {
+            seg.lock.lock();
+            seg.getting.remove(key);
+            seg.lock.unlock();
+            future.complete(null);
+        }
+    }
+
+    /**
+     * 等待其他线程对同一资源的获取完成，获取失败时抛出其异常
+     */
+    private void awaitLoading(CompletableFuture<T> loading) throws Exception {
+        try {
+            loading.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (java.lang.Error) cause;
+        }
+    }
+
+    /**
+     * 为一个新资源申请全局容量
+     * 缓存已满时优先从本分段驱逐，否则依次尝试其他分段；都没有可驱逐的资源时等待释放
+     */
+    private void reserve(int idx) throws Exception {
+        if (maxResource == 0) {
+            count.incrementAndGet();
+            return;
+        }
+
+        long deadline = 0;
+        while (true) {
+            int c = count.get();
+            if (c < maxResource) {
+                if (count.compareAndSet(c, c + 1)) {
+                    return;
+                }
+                continue;
+            }
+
+            waiters.incrementAndGet();
+            try {
+                // 登记等待之后重新检查容量和可驱逐的资源，在登记之前释放的线程看到waiters为0不会唤醒
+                long epoch = releaseEpoch.get();
+                if (count.get() < maxResource || evictOne(idx)) {
+                    continue;
+                }
+
+                // 所有资源都被引用，等待其他线程释放
+                if (deadline == 0) {
+                    deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+                }
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    throw Error.CacheFullException;
+                }
+                waitLock.lock();
+                try {
+                    if (releaseEpoch.get() == epoch) {
+                        released.await(remain, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    waitLock.unlock();
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 不等待地为一个新资源申请全局容量，缓存已满时尝试驱逐一个资源
+     *
+     * @return 是否申请到容量
+     */
+    private boolean tryReserve(int idx) {
+        while (true) {
+            int c = count.get();
+            if (c < maxResource) {
+                if (count.compareAndSet(c, c + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (!evictOne(idx)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 唤醒等待容量的线程，没有等待者时不做任何事，避免每次释放都竞争同一个计数器
+     */
+    private void signalReleased() {
+        if (waiters.get() == 0) {
+            return;
+        }
+        releaseEpoch.incrementAndGet();
+        waitLock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
     /**
      * 释放一个资源
      */
     protected void release(long key) {
-        lock.lock();
+        Segment seg = segments.get(segmentIndex(key));
+        boolean signal = false;
+        seg.lock.lock();
         try {
-            int ref = references.get(key) - 1;
-            if (ref == 0) {
-                T obj = cache.get(key);
+            int ref = seg.references.get(key) - 1;
+            if (ref > 0) {
+                seg.references.put(key, ref);
+            } else if (maxResource == 0) {
+                T obj = seg.cache.get(key);
                 releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count--;
+                seg.references.remove(key);
+                seg.cache.remove(key);
+                seg.policy.remove(key);
+                count.decrementAndGet();
             } else {
-                references.put(key, ref);
+                // 不立即写回，留在缓存中等待复用或驱逐
+                seg.references.put(key, 0);
+                signal = true;
             }
         } finally {
-            lock.unlock();
+            seg.lock.unlock();
+        }
+        if (signal) {
+            signalReleased();
         }
     }
 
     /**
-     * 关闭缓存，写回所有资源
+     * 从第idx个分段开始，驱逐一个由替换策略选出的、未被引用的资源
+     * 写回在分段锁外进行，写回期间该key登记为正在获取，请求它的线程会等待写回完成后再重新加载
+     *
+     * @return 是否成功驱逐
      */
-    protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (Long key : keys) {
-                T obj = cache.get(key);
+    private boolean evictOne(int idx) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = segments.get((idx + i) & (SEGMENTS - 1));
+            long key;
+            T obj;
+            CompletableFuture<T> evicting = new CompletableFuture<>();
+            seg.lock.lock();
+            try {
+                Long victim = seg.policy.victim(k -> seg.references.get(k) == 0);
+                if (victim == null) {
+                    continue;
+                }
+                key = victim;
+                obj = seg.cache.remove(key);
+                seg.references.remove(key);
+                seg.getting.put(key, evicting);
+            } finally {
+                seg.lock.unlock();
+            }
+
+            try {
                 releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+            } finally {
+                seg.lock.lock();
+                seg.getting.remove(key);
+                seg.lock.unlock();
+                evicting.complete(null);
+                count.decrementAndGet();
             }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 资源是否驻留在缓存中(或正在被获取)，不加引用也不改变LRU位置，结果只是一个瞬时的判断
+     */
+    protected boolean contains(long key) {
+        Segment seg = segments.get(segmentIndex(key));
+        seg.lock.lock();
+        try {
+            return seg.cache.containsKey(key) || seg.getting.containsKey(key);
         } finally {
-            lock.unlock();
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * 对当前驻留在缓存中、满足filter的资源各加一次引用并返回，调用方用完后需要逐个release
+     * 与get不同，这里的引用不算作一次访问，不会改变资源在替换策略中的位置，供后台写回等不代表真实访问的任务使用
+     */
+    protected List<T> pinIf(Predicate<T> filter) {
+        List<T> pinned = new ArrayList<>();
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                for (Map.Entry<Long, T> e : seg.cache.entrySet()) {
+                    if (filter.test(e.getValue())) {
+                        seg.references.merge(e.getKey(), 1, Integer::sum);
+                        pinned.add(e.getValue());
+                    }
+                }
+            } finally {
+                seg.lock.unlock();
+            }
         }
+        return pinned;
+    }
+
+    /**
+     * 关闭缓存，写回所有资源
+     */
+    protected void close() {
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                List<T> objs = new ArrayList<>(seg.cache.values());
+                for (T obj : objs) {
+                    releaseForCache(obj);
+                }
+                count.addAndGet(-seg.cache.size());
+                seg.cache.clear();
+                seg.references.clear();
+                seg.policy = policyFactory.get();
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 计算key所属的分段
+     */
+    private static int segmentIndex(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        h ^= (h >>> 16);
+        return h & (SEGMENTS - 1);
     }
 
     /**
@@ -0,0 +1,48 @@
+package com.antares.db.backend.common;
+
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 缓存的替换策略，决定缓存已满时驱逐哪一个资源
+ *
+ * AbstractCache的每个分段持有一个独立的策略实例，所有方法都在分段锁内调用，实现无需考虑并发
+ */
+public interface EvictionPolicy {
+    /**
+     * 资源被加载进缓存
+     */
+    void admit(long key);
+
+    /**
+     * 缓存命中
+     */
+    void access(long key);
+
+    /**
+     * 资源不经过驱逐而离开缓存(如无容量限制的缓存释放资源)
+     */
+    void remove(long key);
+
+    /**
+     * 选出并移除一个要驱逐的资源
+     *
+     * @param evictable 判断资源当前能否被驱逐(是否未被引用)
+     * @return 被驱逐的key，没有可驱逐的资源时返回null
+     */
+    Long victim(Predicate<Long> evictable);
+
+    /**
+     * 最近最少使用
+     */
+    public static Supplier<EvictionPolicy> lru() {
+        return LruPolicy::new;
+    }
+
+    /**
+     * 2Q，只被访问过一次的资源(如被全表扫描读过的页面)不会挤出反复使用的资源
+     */
+    public static Supplier<EvictionPolicy> twoQueue() {
+        return TwoQueuePolicy::new;
+    }
+}
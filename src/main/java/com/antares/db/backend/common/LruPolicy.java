@@ -0,0 +1,48 @@
+package com.antares.db.backend.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU：按最近一次访问的先后排列，驱逐最久未被访问的资源
+ */
+class LruPolicy implements EvictionPolicy {
+    private LinkedHashSet<Long> queue = new LinkedHashSet<>();
+
+    @Override
+    public void admit(long key) {
+        queue.add(key);
+    }
+
+    @Override
+    public void access(long key) {
+        queue.remove(key);
+        queue.add(key);
+    }
+
+    @Override
+    public void remove(long key) {
+        queue.remove(key);
+    }
+
+    @Override
+    public Long victim(Predicate<Long> evictable) {
+        return pollFirst(queue, evictable);
+    }
+
+    /**
+     * 移除并返回queue中第一个可驱逐的key
+     */
+    static Long pollFirst(LinkedHashSet<Long> queue, Predicate<Long> evictable) {
+        Iterator<Long> it = queue.iterator();
+        while (it.hasNext()) {
+            Long key = it.next();
+            if (evictable.test(key)) {
+                it.remove();
+                return key;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.antares.db.backend.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q替换策略
+ *
+ * A1in：首次加载的资源，先进先出，在A1in中的命中不算作再次使用(同一页面上的多条记录会被连续访问)
+ * A1out：从A1in驱逐的资源的key(不占用缓存)，再次加载时说明它确实被反复使用，直接进入Am
+ * Am：被反复使用的资源，LRU
+ *
+ * A1in超过缓存的1/4时优先从A1in驱逐，所以一次大范围扫描只会在A1in中轮转，不会挤出Am中的热点资源
+ */
+class TwoQueuePolicy implements EvictionPolicy {
+    private LinkedHashSet<Long> a1in = new LinkedHashSet<>();
+    private LinkedHashSet<Long> a1out = new LinkedHashSet<>();
+    private LinkedHashSet<Long> am = new LinkedHashSet<>();
+
+    @Override
+    public void admit(long key) {
+        if (a1out.remove(key)) {
+            am.add(key);
+        } else {
+            a1in.add(key);
+        }
+    }
+
+    @Override
+    public void access(long key) {
+        if (am.remove(key)) {
+            am.add(key);
+        }
+    }
+
+    @Override
+    public void remove(long key) {
+        if (!a1in.remove(key)) {
+            am.remove(key);
+        }
+    }
+
+    @Override
+    public Long victim(Predicate<Long> evictable) {
+        int resident = a1in.size() + am.size();
+        Long key = null;
+        if (a1in.size() > Math.max(1, resident / 4)) {
+            key = evictIn(evictable);
+        }
+        if (key == null) {
+            key = LruPolicy.pollFirst(am, evictable);
+        }
+        if (key == null) {
+            key = evictIn(evictable);
+        }
+        return key;
+    }
+
+    /**
+     * 从A1in驱逐，并把key记入A1out，A1out最多记录缓存大小一半的key
+     */
+    private Long evictIn(Predicate<Long> evictable) {
+        int resident = a1in.size() + am.size();
+        Long key = LruPolicy.pollFirst(a1in, evictable);
+        if (key != null) {
+            a1out.add(key);
+            Iterator<Long> it = a1out.iterator();
+            while (a1out.size() > Math.max(1, resident / 2)) {
+                it.next();
+                it.remove();
+            }
+        }
+        return key;
+    }
+}
@@ -1,5 +1,8 @@
 package com.antares.db.backend.dm;
 
+import java.util.function.Supplier;
+
+import com.antares.db.backend.common.EvictionPolicy;
 import com.antares.db.backend.dm.dateItem.DataItem;
 import com.antares.db.backend.dm.logger.Logger;
 import com.antares.db.backend.dm.page.PageOne;
@@ -9,19 +12,60 @@ import com.antares.db.backend.tm.TransactionManager;
 public interface DataManager {
     DataItem read(long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+
+    /**
+     * 预读提示：接下来将顺序访问uid所在页面及其之后的页面
+     */
+    void readAhead(long uid);
+
+    /**
+     * 提交事务：写入COMMIT日志并在TransactionManager中标记为已提交
+     *
+     * @param async 为true时不等待日志和事务状态持久化
+     */
+    void commit(long xid, boolean async);
+
+    /**
+     * 回滚事务：写入ABORT日志并在TransactionManager中标记为已回滚
+     */
+    void abort(long xid);
+
+    /**
+     * 等待已写入的日志全部持久化，数据库文件以外的文件(如Booter)引用新写入的数据前调用
+     */
+    void flushLog();
+
+    /**
+     * 日志段、检查点等日志位置的描述
+     */
+    String walStatus();
     void close();
 
     public static DataManagerImpl create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
+        return create(path, mem, tm, false);
+    }
+
+    public static DataManagerImpl create(String path, long mem, TransactionManager tm, boolean mmap) {
+        PageCache pc = PageCache.create(path, mem, mmap);
         Logger lg = Logger.create(path);
 
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
         dm.initPageOne();
+        dm.startCheckpointer();
         return dm;
     }
 
     public static DataManagerImpl open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
+        return open(path, mem, tm, false);
+    }
+
+    public static DataManagerImpl open(String path, long mem, TransactionManager tm, boolean mmap) {
+        return open(path, mem, tm, mmap, EvictionPolicy.lru());
+    }
+
+    public static DataManagerImpl open(String path, long mem, TransactionManager tm, boolean mmap,
+            Supplier<EvictionPolicy> policy) {
+        PageCache pc = PageCache.open(path, mem, mmap, policy);
         Logger lg = Logger.open(path);
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
 
@@ -32,6 +76,7 @@ public interface DataManager {
         dm.fillPageIndex();
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        dm.startCheckpointer();
         return dm;
     }
 }
@@ -1,5 +1,11 @@
 package com.antares.db.backend.dm;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 import com.antares.db.backend.common.AbstractCache;
 import com.antares.db.backend.dm.dateItem.DataItem;
 import com.antares.db.backend.dm.dateItem.DataItemImpl;
@@ -11,11 +17,14 @@ import com.antares.db.backend.dm.pageCache.PageCache;
 import com.antares.db.backend.dm.pageIndex.PageIndex;
 import com.antares.db.backend.dm.pageIndex.PageInfo;
 import com.antares.db.backend.tm.TransactionManager;
+import com.antares.db.backend.tm.TransactionManagerImpl;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.Types;
 import com.antares.db.common.Error;
 
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
+    // 后台写回脏页并做检查点的间隔
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
 
     TransactionManager tm;
     PageCache pc;
@@ -23,12 +32,20 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     PageIndex pIndex;
     Page pageOne;
 
+    // 未结束的事务写下的第一条日志的位置，回收日志段时不能越过其中最小的一个，否则恢复时无法撤销该事务
+    private ConcurrentHashMap<Long, Long> txnFirstLsn;
+
+    private Thread checkpointer;
+    private volatile boolean closed;
+
     public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
         super(0);
         this.pc = pc;
         this.logger = logger;
         this.tm = tm;
         this.pIndex = new PageIndex();
+        this.txnFirstLsn = new ConcurrentHashMap<>();
+        pc.setLogFlusher(lsn -> logger.flush(lsn + 1));
     }
 
     /**
@@ -62,6 +79,7 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
      */
     void fillPageIndex() {
         int pageNumber = pc.getPageNumber();
+        pc.readAhead(2);
         for(int i = 2; i <= pageNumber; i++) {
             Page pg = null;
             try {
@@ -75,6 +93,106 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         }
     }
 
+    /**
+     * 启动后台写回线程，周期性地执行检查点
+     * 热点页面在两次检查点之间可以被多次修改而只写回一次
+     * 线程用park等待，停止时unpark唤醒；检查点会读写页面和日志文件，不能中断它，否则会关闭对应的FileChannel
+     */
+    void startCheckpointer() {
+        checkpointer = new Thread(() -> {
+            while (!closed) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_INTERVAL_MILLIS));
+                if (closed) {
+                    break;
+                }
+                checkpoint();
+            }
+        }, "checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * 停止后台检查点线程，不写回任何数据
+     */
+    void stopCheckpointer() {
+        closed = true;
+        if (checkpointer != null) {
+            LockSupport.unpark(checkpointer);
+            try {
+                checkpointer.join();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    /**
+     * 模糊检查点：先记下当前日志末尾的位置，再写回所有脏页并持久化，期间不阻塞写入
+     * 如果所有脏页都已写回，则该位置之前的日志所做的修改都已在数据库文件中，
+     * 将该位置(redo起点)和活跃事务表写为一条检查点日志，并把这条日志的位置记录到PageOne
+     *
+     * 修改页面时总是先标记脏页、再写日志(见insert和DataItem.before)，
+     * 所以位置之前的日志对应的修改，要么已经在本次写回的脏页中，要么所在页面正在被修改而被跳过
+     *
+     * 检查点成功后回收该位置之前的日志段，但要保留仍未结束的事务的全部日志，供恢复时撤销
+     * 回收的日志中的COMMIT日志不再可用，回收前先持久化事务状态
+     */
+    void checkpoint() {
+        long position = logger.end();
+        int pages = pc.getPageNumber();
+        if (!pc.flushDirtyPages()) {
+            return;
+        }
+
+        Map<Long, Long> active = new HashMap<>();
+        for (Map.Entry<Long, Long> e : txnFirstLsn.entrySet()) {
+            if (!tm.isActive(e.getKey())) {
+                txnFirstLsn.remove(e.getKey());
+            } else {
+                active.put(e.getKey(), e.getValue());
+            }
+        }
+        tm.flush();
+        writeCheckpoint(position, pages, active);
+        pc.flushPage(pageOne);
+
+        long purge = position;
+        for (long lsn : active.values()) {
+            purge = Math.min(purge, lsn);
+        }
+        logger.purge(purge);
+    }
+
+    /**
+     * 写入检查点日志(log返回时已持久化)，再把它的位置记录到PageOne
+     */
+    private void writeCheckpoint(long redoStart, int pages, Map<Long, Long> active) {
+        long lsn = logger.log(Recover.checkpointLog(redoStart, active));
+        PageOne.setCheckpoint(pageOne, lsn, pages);
+    }
+
+    /**
+     * 写一条修改数据的日志，返回其LSN，日志只追加到日志缓冲区，在提交或写回所修改的页面时才需要持久化
+     * SUPER_XID的修改(如索引节点)没有提交，随之后任意一次刷日志持久化：
+     * 日志总是按顺序持久化，一条日志持久化时它之前的日志也都已持久化，
+     * 所以索引项持久化时它引用的记录也已持久化，事务提交时它写下的索引项也随COMMIT日志持久化，
+     * 一条语句无论修改了多少索引节点，提交时都只需要一次日志的fsync
+     */
+    private long logChange(long xid, byte[] log) {
+        noteFirstLog(xid);
+        return logger.logAsync(log);
+    }
+
+    /**
+     * 在xid写下第一条日志之前，记录日志当前的末尾位置
+     */
+    private void noteFirstLog(long xid) {
+        if (xid != TransactionManagerImpl.SUPER_XID && !txnFirstLsn.containsKey(xid)) {
+            txnFirstLsn.putIfAbsent(xid, logger.end());
+        }
+    }
+
     // region DataManager
     /**
      * 根据uid获取缓存中的DataItem
@@ -94,10 +212,59 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         super.release(di.getUid());
     }
 
-    // 为xid生成update日志
-    public void logDataItem(long xid, DataItem di) {
-        byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+    // 为xid生成update日志，返回日志的LSN
+    public long logDataItem(long xid, DataItem di) {
+        return logChange(xid, Recover.updateLog(xid, di));
+    }
+
+    /**
+     * 写过日志的事务先写COMMIT日志，再标记为已提交，事务状态由检查点批量持久化
+     * 同步提交等待COMMIT日志持久化，之前的所有日志也随之持久化，提交只需要一次日志的fsync；
+     * 异步提交不等待，崩溃时最多丢失Logger后台写入间隔内提交的事务，恢复时这些事务被整体撤销
+     * 没有写过日志的事务没有需要持久化的修改
+     */
+    @Override
+    public void commit(long xid, boolean async) {
+        if (txnFirstLsn.containsKey(xid)) {
+            long lsn = logger.logAsync(Recover.commitLog(xid));
+            if (!async) {
+                logger.flush(lsn + 1);
+            }
+        }
+        tm.commitAsync(xid);
+        // 标记为已提交之后再移除，检查点总能看到活跃事务的第一条日志
+        txnFirstLsn.remove(xid);
+    }
+
+    /**
+     * 回滚事务
+     * 写过日志的事务先写ABORT日志，再标记为已回滚，它的修改留在原处，恢复时不再撤销
+     * ABORT日志不需要等待持久化：之后任何在这些数据上修改并提交的事务，其COMMIT日志持久化时ABORT日志也已持久化；
+     * ABORT日志丢失时，也没有依赖它的修改被持久化，恢复时撤销该事务是安全的
+     */
+    @Override
+    public void abort(long xid) {
+        if (txnFirstLsn.containsKey(xid)) {
+            logger.logAsync(Recover.abortLog(xid));
+        }
+        tm.abort(xid);
+        txnFirstLsn.remove(xid);
+    }
+
+    @Override
+    public void flushLog() {
+        logger.flush(logger.end());
+    }
+
+    @Override
+    public void readAhead(long uid) {
+        pc.readAhead(Types.uidToPgno(uid));
+    }
+
+    @Override
+    public String walStatus() {
+        return logger.status() + ", checkpoint lsn: " + PageOne.getCheckpoint(pageOne)
+                + ", checkpoint pages: " + PageOne.getCheckpointPages(pageOne);
     }
 
     @Override
@@ -125,17 +292,23 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         Page pg = null;
         try {
             pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
-
-            short offset = PageX.insert(pg, raw);
+            // 写日志和修改页面在页面锁内完成，后台写回不会拿到只差这一步修改的页面
+            pg.lock();
+            try {
+                pg.setDirty(true);
+                long lsn = logChange(xid, Recover.insertLog(xid, pg, raw));
 
-            pg.release();
-            return Types.addressToUid(pi.pgno, offset);
+                short offset = PageX.insert(pg, raw);
+                PageX.setPageLsn(pg, lsn);
+                return Types.addressToUid(pi.pgno, offset);
+            } finally {
+                pg.unlock();
+            }
         } finally {
-            // 将取出的pg重新插入pIndex
+            // 将取出的pg重新插入pIndex，释放后页框可能被复用，需要在释放前读取空闲空间
             if(pg != null) {
                 pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
+                pg.release();
             } else {
                 pIndex.add(pi.pgno, pi.freeSpace);
             }
@@ -144,7 +317,14 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     @Override
     public void close() {
+        stopCheckpointer();
         super.close();
+        // 先写回数据页，关闭时的日志末尾就是检查点；PageOne在pc.close中最后写回
+        // 此时tm可能已经关闭，不再查询事务状态，保守地记录所有可能未结束的事务
+        long position = logger.end();
+        int pages = pc.getPageNumber();
+        pc.flushDirtyPages();
+        writeCheckpoint(position, pages, new HashMap<>(txnFirstLsn));
         logger.close();
 
         PageOne.setVcClose(pageOne);
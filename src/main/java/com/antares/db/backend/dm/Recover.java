@@ -5,14 +5,18 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import com.antares.db.backend.common.SubArray;
 import com.antares.db.backend.dm.dateItem.DataItem;
 import com.antares.db.backend.dm.logger.Logger;
 import com.antares.db.backend.dm.page.Page;
+import com.antares.db.backend.dm.page.PageOne;
 import com.antares.db.backend.dm.page.PageX;
 import com.antares.db.backend.dm.pageCache.PageCache;
 import com.antares.db.backend.tm.TransactionManager;
+import com.antares.db.backend.tm.TransactionManagerImpl;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.Parser;
 import com.google.common.primitives.Bytes;
@@ -20,16 +24,40 @@ import com.google.common.primitives.Bytes;
 /**
  * 每一条日志的格式：
  * UPDATE日志:
- * [LogType] [XID] [UID] [OldRaw] [NewRaw]
+ * [LogType] [XID] [UID] [Delta1] ... [DeltaN]
  * UID的高32bit存储Pgno，低16bit存储Offset，即
  * UID: [Pgno] [None] [Offset]
+ * 只记录DataItem中发生变化的字节范围，每个Delta的格式为：
+ * [DeltaOffset(2)] [Length(2)] [OldRaw(Length)] [NewRaw(Length)]
+ * DeltaOffset是该范围在DataItem中的偏移；redo写入NewRaw，undo写入OldRaw
  * 
  * INSERT日志:
  * [LogType] [XID] [Pgno] [Offset] [Raw]
+ *
+ * CHECKPOINT日志:
+ * [LogType] [RedoStart] [XID1] [FirstLSN1] ... [XIDN] [FirstLSNN]
+ * RedoStart之前的日志所做的修改都已写回数据库文件，恢复时从这里开始redo；
+ * 之后是检查点时的活跃事务表，每个活跃事务写下的第一条日志的位置，撤销它们需要从最小的一个开始读日志
+ * PageOne中记录最近一条CHECKPOINT日志的位置
+ *
+ * COMMIT日志:
+ * [LogType] [XID]
+ * 事务提交时在标记为已提交之前写入，是提交的持久化点；XID文件中的状态是批量写入的，可能落后于日志
+ * 恢复时读到COMMIT日志的事务标记为已提交
+ *
+ * ABORT日志:
+ * [LogType] [XID]
+ * 事务回滚时写入。回滚的事务所做的修改留在原处(对其他事务不可见)，之后提交的事务可能在其上继续修改，
+ * 所以恢复时不能再撤销它们。恢复撤销了一个事务后，也为它写一条ABORT日志，再次崩溃时不会重复撤销
+ *
+ * 读完日志既没有COMMIT也没有ABORT日志的事务(活跃、丢失了COMMIT日志的异步提交)被撤销并标记为已回滚
  */
 public class Recover {
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_CHECKPOINT = 2;
+    private static final byte LOG_TYPE_COMMIT = 3;
+    private static final byte LOG_TYPE_ABORT = 4;
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
@@ -39,11 +67,25 @@ public class Recover {
 
     private static final int OF_UPDATE_UID = OF_XID + 8;
     private static final int OF_UPDATE_RAW = OF_UPDATE_UID + 8;
+    // Delta的头部：[DeltaOffset(2)] [Length(2)]
+    private static final int LEN_DELTA_HEADER = 4;
+    // 两个变化范围之间相同的字节不超过该值时合并为一个范围，重复记录这些字节比多一个Delta头部更省
+    private static final int DELTA_MERGE_GAP = LEN_DELTA_HEADER / 2;
 
     private static final int OF_INSERT_PGNO = OF_XID + 8;
     private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO + 4;
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET + 2;
 
+    // 并行redo的线程数，读日志的线程同时在运行，单核上也至少用一个独立的redo线程
+    private static final int RECOVER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // 每批交给redo线程的日志条数
+    private static final int REDO_BATCH_SIZE = 1024;
+    // 每个redo线程最多积压的批次，读日志过快时阻塞读线程
+    private static final int REDO_QUEUE_BATCHES = 8;
+
+    private static final int OF_CKPT_REDO = OF_TYPE + 1;
+    private static final int OF_CKPT_ATT = OF_CKPT_REDO + 8;
+
     static class InsertLogInfo {
         long xid;
         int pgno;
@@ -55,53 +97,333 @@ public class Recover {
         long xid;
         int pgno;
         short offset;
+        List<Delta> deltas;
+    }
+
+    static class Delta {
+        short offset; // 在DataItem中的偏移
         byte[] oldRaw;
         byte[] newRaw;
     }
 
+    static class CheckpointInfo {
+        long redoStart;
+        Map<Long, Long> activeTransactions;
+    }
+
+    /**
+     * 日志及其LSN
+     */
+    static class LsnLog {
+        long lsn;
+        byte[] log;
+
+        LsnLog(long lsn, byte[] log) {
+            this.lsn = lsn;
+            this.log = log;
+        }
+    }
+
+    /**
+     * 恢复的起点，由最近的检查点决定
+     */
+    static class RecoverStart {
+        long redoStart;
+        long undoStart;
+    }
+
+    /**
+     * 单遍、按页分区并行的恢复
+     *
+     * 只从undo起点顺序读一遍日志，事务的结局完全由日志决定：
+     * redo起点之后的日志不论属于哪个事务，都按页号分区，成批交给redo线程，同一页面的日志总是由同一个线程按日志顺序重做；
+     * 每个事务的日志在读到其COMMIT日志前暂存起来，读完日志仍没有COMMIT日志的事务，redo完成后按日志倒序undo
+     */
     public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
         System.out.println("Recovering...");
 
-        lg.rewind();
+        RecoverStart start = recoverStart(lg, pc);
+
+        RedoWorker[] workers = new RedoWorker[RECOVER_THREADS];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new RedoWorker(pc, i);
+            workers[i].start();
+        }
+        List<List<LsnLog>> batches = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            batches.add(new ArrayList<>(REDO_BATCH_SIZE));
+        }
+        Map<Long, List<LsnLog>> uncommitted = new HashMap<>();
+
+        lg.seek(start.undoStart);
         int maxPgno = 0;
         while (true) {
             byte[] log = lg.next();
             if (log == null)
                 break;
-
-            int pgno;
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
+            if (isCheckpointLog(log))
+                continue;
+            long xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_XID + 8));
+            if (isCommitLog(log)) {
+                commit(tm, uncommitted, xid);
+                continue;
+            }
+            if (isAbortLog(log)) {
+                abort(tm, uncommitted, xid);
+                continue;
             }
 
+            int pgno = logPgno(log);
             if (pgno > maxPgno) {
                 maxPgno = pgno;
             }
+
+            if (xid != TransactionManagerImpl.SUPER_XID) {
+                uncommitted.computeIfAbsent(xid, k -> new ArrayList<>()).add(new LsnLog(lg.lsn(), log));
+            }
+            if (lg.lsn() >= start.redoStart) {
+                int idx = pgno % workers.length;
+                List<LsnLog> batch = batches.get(idx);
+                batch.add(new LsnLog(lg.lsn(), log));
+                if (batch.size() == REDO_BATCH_SIZE) {
+                    workers[idx].submit(batch);
+                    batches.set(idx, new ArrayList<>(REDO_BATCH_SIZE));
+                }
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].submit(batches.get(i));
+            workers[i].finish();
+        }
+        for (RedoWorker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+        System.out.println("Redo Transactions finished.");
+
+        // 重做只涉及日志中出现过的页面，截断可以放在redo之后
+        truncate(pc, maxPgno);
+
+        rollback(tm, lg, pc, uncommitted);
+        System.out.println("Undo Transactions finished.");
+
+        System.out.println("Recover finished.");
+    }
+
+    /**
+     * 按页分区的redo线程，按提交顺序处理分给它的日志批次
+     */
+    private static class RedoWorker extends Thread {
+        private PageCache pc;
+        private BlockingQueue<List<LsnLog>> batches;
+
+        RedoWorker(PageCache pc, int id) {
+            super("recover-redo-" + id);
+            this.pc = pc;
+            this.batches = new ArrayBlockingQueue<>(REDO_QUEUE_BATCHES);
+        }
+
+        void submit(List<LsnLog> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                batches.put(batch);
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+
+        /**
+         * 所有批次已提交，处理完后退出
+         */
+        void finish() {
+            try {
+                batches.put(new ArrayList<>());
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                List<LsnLog> batch;
+                try {
+                    batch = batches.take();
+                } catch (InterruptedException e) {
+                    Panic.panic(e);
+                    return;
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                for (LsnLog rl : batch) {
+                    if (isInsertLog(rl.log)) {
+                        doInsertLog(pc, rl.log, rl.lsn, REDO);
+                    } else {
+                        doUpdateLog(pc, rl.log, rl.lsn, REDO);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读到xid的COMMIT日志：确认提交，并在XID文件的状态落后于日志时重新标记
+     */
+    private static void commit(TransactionManager tm, Map<Long, List<LsnLog>> uncommitted, long xid) {
+        uncommitted.remove(xid);
+        if (!tm.isCommitted(xid)) {
+            tm.commitAsync(xid);
+        }
+    }
+
+    /**
+     * 读到xid的ABORT日志：事务已回滚，其修改保留在原处，不撤销
+     */
+    private static void abort(TransactionManager tm, Map<Long, List<LsnLog>> uncommitted, long xid) {
+        uncommitted.remove(xid);
+        if (!tm.isAborted(xid)) {
+            tm.abort(xid);
+        }
+    }
+
+    /**
+     * 撤销没有结局的事务，标记为已回滚，并持久化恢复得到的事务状态
+     *
+     * XID文件中已回滚的事务同样是在运行时回滚的，不撤销
+     * 撤销后的页面先写回，再持久化ABORT日志：否则再次崩溃时，redo会重做这些事务的修改而不再撤销
+     */
+    private static void rollback(TransactionManager tm, Logger lg, PageCache pc,
+            Map<Long, List<LsnLog>> uncommitted) {
+        uncommitted.keySet().removeIf(tm::isAborted);
+        undoLogs(pc, uncommitted);
+        if (!uncommitted.isEmpty()) {
+            pc.flushDirtyPages();
+            for (long xid : uncommitted.keySet()) {
+                lg.logAsync(abortLog(xid));
+                tm.abort(xid);
+            }
+            lg.flush(lg.end());
+        }
+        tm.flush();
+        if (!uncommitted.isEmpty()) {
+            System.out.println("Rolled back " + uncommitted.size() + " transactions.");
+        }
+    }
+
+    /**
+     * 从最近的检查点开始：redo从RedoStart开始，undo从检查点时最早的活跃事务开始
+     */
+    private static RecoverStart recoverStart(Logger lg, PageCache pc) {
+        RecoverStart start = new RecoverStart();
+        start.redoStart = lg.begin();
+        start.undoStart = lg.begin();
+        CheckpointInfo ci = readCheckpoint(lg, pc);
+        if (ci != null) {
+            start.redoStart = ci.redoStart;
+            start.undoStart = ci.redoStart;
+            for (long lsn : ci.activeTransactions.values()) {
+                start.undoStart = Math.min(start.undoStart, lsn);
+            }
+            System.out.println("Checkpoint found, redo from " + start.redoStart + ", undo from " + start.undoStart + ".");
         }
+        return start;
+    }
 
+    /**
+     * 截断日志中没有出现过的页面
+     * 检查点之前的日志可能已被回收，检查点时已有的页面都要保留
+     */
+    private static void truncate(PageCache pc, int maxPgno) {
+        maxPgno = Math.max(maxPgno, checkpointPages(pc));
         if (maxPgno == 0) {
             maxPgno = 1;    // PageOne保留的是元信息
         }
         pc.truncateByPgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
+    }
 
-        redoTransactions(tm, lg, pc);
-        System.out.println("Redo Transactions finished.");
+    /**
+     * 日志所修改的页号
+     */
+    private static int logPgno(byte[] log) {
+        if (isInsertLog(log)) {
+            return Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
+        }
+        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
+        return (int) (uid >>> 32);
+    }
 
-        undoTransactions(tm, lg, pc);
-        System.out.println("Undo Transactions finished.");
+    private static int checkpointPages(PageCache pc) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(1);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            return PageOne.getCheckpointPages(pg);
+        } finally {
+            pg.release();
+        }
+    }
 
-        System.out.println("Recover finished.");
+    /**
+     * 读取PageOne中记录的检查点日志，没有检查点或检查点日志已被回收时返回null
+     */
+    private static CheckpointInfo readCheckpoint(Logger lg, PageCache pc) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(1);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        long lsn;
+        try {
+            lsn = PageOne.getCheckpoint(pg);
+        } finally {
+            pg.release();
+        }
+        if (lsn < lg.begin() || lsn >= lg.end()) {
+            return null;
+        }
+
+        lg.seek(lsn);
+        byte[] log = lg.next();
+        if (log == null || !isCheckpointLog(log) || (log.length - OF_CKPT_ATT) % 16 != 0) {
+            return null;
+        }
+        CheckpointInfo ci = new CheckpointInfo();
+        ci.redoStart = Parser.parseLong(Arrays.copyOfRange(log, OF_CKPT_REDO, OF_CKPT_ATT));
+        ci.activeTransactions = new HashMap<>();
+        for (int i = OF_CKPT_ATT; i < log.length; i += 16) {
+            ci.activeTransactions.put(Parser.parseLong(Arrays.copyOfRange(log, i, i + 8)),
+                    Parser.parseLong(Arrays.copyOfRange(log, i + 8, i + 16)));
+        }
+        return ci;
     }
 
     private static boolean isInsertLog(byte[] log) {
         return log[0] == LOG_TYPE_INSERT;
     }
 
+    private static boolean isCheckpointLog(byte[] log) {
+        return log[0] == LOG_TYPE_CHECKPOINT;
+    }
+
+    private static boolean isCommitLog(byte[] log) {
+        return log[0] == LOG_TYPE_COMMIT;
+    }
+
+    private static boolean isAbortLog(byte[] log) {
+        return log[0] == LOG_TYPE_ABORT;
+    }
+
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo li = new InsertLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
@@ -118,81 +440,58 @@ public class Recover {
         li.offset = (short) (uid & ((1L << 16) - 1));
         uid >>>= 32;
         li.pgno = (int) (uid & ((1L << 32) - 1));
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        li.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW + length);
-        li.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW + length, log.length);
+        li.deltas = new ArrayList<>();
+        int pos = OF_UPDATE_RAW;
+        while (pos < log.length) {
+            Delta d = new Delta();
+            d.offset = Parser.parseShort(Arrays.copyOfRange(log, pos, pos + 2));
+            int length = Parser.parseShort(Arrays.copyOfRange(log, pos + 2, pos + LEN_DELTA_HEADER));
+            pos += LEN_DELTA_HEADER;
+            d.oldRaw = Arrays.copyOfRange(log, pos, pos + length);
+            d.newRaw = Arrays.copyOfRange(log, pos + length, pos + 2 * length);
+            pos += 2 * length;
+            li.deltas.add(d);
+        }
         return li;
     }
 
-    private static void redoTransactions(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
-        while (true) {
-            byte[] log = lg.next();
-            if (log == null)
-                break;
-
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                if (!tm.isActive(li.xid)) {
-                    doInsertLog(pc, log, REDO);
-                }
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                if (!tm.isActive(li.xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
-            }
+    /**
+     * 对所有需要撤销的日志按LSN倒序undo，同一数据项被多个事务先后修改时，先撤销后发生的修改
+     */
+    private static void undoLogs(PageCache pc, Map<Long, List<LsnLog>> logCache) {
+        List<LsnLog> logs = new ArrayList<>();
+        for (List<LsnLog> l : logCache.values()) {
+            logs.addAll(l);
         }
-    }
-
-    private static void undoTransactions(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while (true) {
-            byte[] log = lg.next();
-            if (log == null)
-                break;
-
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                if (tm.isActive(li.xid)) {
-                    if (!logCache.containsKey(li.xid)) {
-                        logCache.put(li.xid, new ArrayList<>());
-                    }
-                    logCache.get(li.xid).add(log);
-                }
+        logs.sort((a, b) -> Long.compare(b.lsn, a.lsn));
+        for (LsnLog ll : logs) {
+            if (isInsertLog(ll.log)) {
+                doInsertLog(pc, ll.log, 0, UNDO);
             } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                if (tm.isActive(li.xid)) {
-                    if (!logCache.containsKey(li.xid)) {
-                        logCache.put(li.xid, new ArrayList<>());
-                    }
-                    logCache.get(li.xid).add(log);
-                }
+                doUpdateLog(pc, ll.log, 0, UNDO);
             }
         }
+    }
 
-        // 对所有active log进行倒序undo
-        for (Map.Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size() - 1; i >= 0; i--) {
-                byte[] log = logs.get(i);
-                if (isInsertLog(log)) {
-                    doInsertLog(pc, log, UNDO);
-                } else {
-                    doUpdateLog(pc, log, UNDO);
-                }
-            }
-        }
+    /**
+     * LSN为lsn的日志所做的修改是否已经在页面中
+     * 页面LSN为0时无法区分页面从未被修改和只被第一条日志(LSN为0)修改，按未应用处理，redo本身是幂等的
+     */
+    private static boolean applied(Page pg, long lsn) {
+        long pageLsn = PageX.getPageLsn(pg);
+        return pageLsn > 0 && lsn <= pageLsn;
     }
 
     /**
      * 执行insert日志的redo或undo操作
+     * redo时修改已在页面中(页面LSN不小于日志LSN)则跳过
+     * undo不依赖页面LSN，恢复旧数据总是安全的
      * @param pc
      * @param log
+     * @param lsn 日志的LSN，只在redo时使用
      * @param flag
      */
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
+    private static void doInsertLog(PageCache pc, byte[] log, long lsn, int flag) {
         InsertLogInfo li = parseInsertLog(log);
         Page pg = null;
         try {
@@ -202,7 +501,12 @@ public class Recover {
         }
 
         try {
-            if (flag == UNDO) {
+            if (flag == REDO) {
+                if (applied(pg, lsn)) {
+                    return;
+                }
+                PageX.setPageLsn(pg, lsn);
+            } else {
                 DataItem.setDataItemRawInvalid(li.raw);
             }
             PageX.recoverInsert(pg, li.raw, li.offset);
@@ -215,28 +519,29 @@ public class Recover {
      * 执行update日志的redo或undo操作
      * @param pc
      * @param log
+     * @param lsn 日志的LSN，只在redo时使用
      * @param flag
      */
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
-        UpdateLogInfo li = parseUpdateLog(log);      
-        int pgno = li.pgno;
-        short offset = li.offset;
-        byte[] raw;
-        if (flag == REDO) {
-            raw = li.newRaw;
-        } else {
-            raw = li.oldRaw;
-        }
-
+    private static void doUpdateLog(PageCache pc, byte[] log, long lsn, int flag) {
+        UpdateLogInfo li = parseUpdateLog(log);
         Page pg = null;
         try {
-            pg = pc.getPage(pgno);
+            pg = pc.getPage(li.pgno);
         } catch (Exception e) {
             Panic.panic(e);
         }
 
         try {
-            PageX.recoverUpdate(pg, raw, offset);
+            if (flag == REDO) {
+                if (applied(pg, lsn)) {
+                    return;
+                }
+                PageX.setPageLsn(pg, lsn);
+            }
+            for (Delta d : li.deltas) {
+                byte[] raw = flag == REDO ? d.newRaw : d.oldRaw;
+                PageX.recoverUpdate(pg, raw, (short) (li.offset + d.offset));
+            }
         } finally {
             pg.release();
         }
@@ -254,15 +559,105 @@ public class Recover {
     }
 
     /**
-     * 生成一条update日志的byte数组
+     * 生成一条update日志的byte数组，只记录与修改前(oldRaw)不同的字节范围
      */
     public static byte[] updateLog(long xid, DataItem di) {
-        byte[] logType = {LOG_TYPE_UPDATE};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(di.getUid());
         byte[] oldRaw = di.getOldRaw();
         SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+
+        // 先计算日志长度，再一次性填入
+        int length = OF_UPDATE_RAW;
+        int i = nextDiff(oldRaw, raw, 0);
+        while (i < oldRaw.length) {
+            int end = deltaEnd(oldRaw, raw, i);
+            length += LEN_DELTA_HEADER + 2 * (end - i);
+            i = nextDiff(oldRaw, raw, end);
+        }
+
+        byte[] log = new byte[length];
+        log[OF_TYPE] = LOG_TYPE_UPDATE;
+        System.arraycopy(Parser.long2Byte(xid), 0, log, OF_XID, 8);
+        System.arraycopy(Parser.long2Byte(di.getUid()), 0, log, OF_UPDATE_UID, 8);
+        int pos = OF_UPDATE_RAW;
+        i = nextDiff(oldRaw, raw, 0);
+        while (i < oldRaw.length) {
+            int end = deltaEnd(oldRaw, raw, i);
+            int len = end - i;
+            System.arraycopy(Parser.short2Byte((short) i), 0, log, pos, 2);
+            System.arraycopy(Parser.short2Byte((short) len), 0, log, pos + 2, 2);
+            pos += LEN_DELTA_HEADER;
+            System.arraycopy(oldRaw, i, log, pos, len);
+            System.arraycopy(raw.raw, raw.start + i, log, pos + len, len);
+            pos += 2 * len;
+            i = nextDiff(oldRaw, raw, end);
+        }
+        return log;
+    }
+
+    /**
+     * 从from开始第一个发生变化的字节，没有时返回oldRaw.length
+     */
+    private static int nextDiff(byte[] oldRaw, SubArray raw, int from) {
+        int i = from;
+        while (i < oldRaw.length && oldRaw[i] == raw.raw[raw.start + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 从变化的字节start开始的变化范围的末尾(不含)，间隔不超过DELTA_MERGE_GAP的变化合并在一起
+     */
+    private static int deltaEnd(byte[] oldRaw, SubArray raw, int start) {
+        int end = start + 1;
+        while (true) {
+            int next = nextDiff(oldRaw, raw, end);
+            if (next >= oldRaw.length || next - end > DELTA_MERGE_GAP) {
+                return end;
+            }
+            end = next;
+            while (end < oldRaw.length && oldRaw[end] != raw.raw[raw.start + end]) {
+                end++;
+            }
+        }
+    }
+
+    /**
+     * 生成一条commit日志的byte数组
+     */
+    public static byte[] commitLog(long xid) {
+        byte[] log = new byte[OF_XID + 8];
+        log[OF_TYPE] = LOG_TYPE_COMMIT;
+        System.arraycopy(Parser.long2Byte(xid), 0, log, OF_XID, 8);
+        return log;
+    }
+
+    /**
+     * 生成一条abort日志的byte数组
+     */
+    public static byte[] abortLog(long xid) {
+        byte[] log = new byte[OF_XID + 8];
+        log[OF_TYPE] = LOG_TYPE_ABORT;
+        System.arraycopy(Parser.long2Byte(xid), 0, log, OF_XID, 8);
+        return log;
+    }
+
+    /**
+     * 生成一条checkpoint日志的byte数组
+     *
+     * @param redoStart 恢复时开始redo的位置
+     * @param activeTransactions 活跃事务 -> 其第一条日志的位置
+     */
+    public static byte[] checkpointLog(long redoStart, Map<Long, Long> activeTransactions) {
+        byte[] log = new byte[OF_CKPT_ATT + 16 * activeTransactions.size()];
+        log[OF_TYPE] = LOG_TYPE_CHECKPOINT;
+        System.arraycopy(Parser.long2Byte(redoStart), 0, log, OF_CKPT_REDO, 8);
+        int pos = OF_CKPT_ATT;
+        for (Map.Entry<Long, Long> e : activeTransactions.entrySet()) {
+            System.arraycopy(Parser.long2Byte(e.getKey()), 0, log, pos, 8);
+            System.arraycopy(Parser.long2Byte(e.getValue()), 0, log, pos + 8, 8);
+            pos += 16;
+        }
+        return log;
     }
 }
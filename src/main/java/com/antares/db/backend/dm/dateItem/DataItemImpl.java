@@ -6,6 +6,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import com.antares.db.backend.common.SubArray;
 import com.antares.db.backend.dm.DataManagerImpl;
 import com.antares.db.backend.dm.page.Page;
+import com.antares.db.backend.dm.page.PageX;
 
 /**
  * [ValidFlag(1)][Size(2)][Data(size)]
@@ -47,12 +48,12 @@ public class DataItemImpl implements DataItem {
 
     /**
      * 修改DataItem之前的操作：
-     * 获取写锁，标记所属Page为脏页，将当前数据内容备份到oldRaw，用于后续回滚
+     * 获取写锁，标记所属Page正在被修改(期间不会被后台写回)，将当前数据内容备份到oldRaw，用于后续回滚
      */
     @Override
     public void before() {
         wLock.lock();
-        pg.setDirty(true);
+        pg.beginUpdate();
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
 
@@ -63,16 +64,24 @@ public class DataItemImpl implements DataItem {
     @Override
     public void unBefore() {
         System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        pg.endUpdate();
         wLock.unlock();
     }
 
     /**
      * 修改DataItem提交时的操作：
-     * 记录日志，释放写锁
+     * 记录日志并更新所属Page的页面LSN，结束对所属Page的修改，释放写锁
      */
     @Override
     public void after(long xid) {
-        dm.logDataItem(xid, this);
+        long lsn = dm.logDataItem(xid, this);
+        pg.lock();
+        try {
+            PageX.setPageLsn(pg, lsn);
+        } finally {
+            pg.unlock();
+        }
+        pg.endUpdate();
         wLock.unlock();
     }
 
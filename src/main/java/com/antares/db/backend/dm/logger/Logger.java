@@ -2,18 +2,47 @@ package com.antares.db.backend.dm.logger;
 
 import java.io.File;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import com.antares.db.backend.utils.Panic;
-import com.antares.db.backend.utils.Parser;
 import com.antares.db.common.Error;
 
 public interface Logger {
     /**
-     * 记录一条日志
+     * 记录一条日志，返回其LSN，返回时日志已持久化
      */
-    void log(byte[] data);
+    long log(byte[] data);
+
+    /**
+     * 记录一条日志，返回其LSN，不等待持久化
+     * 日志在后台定期写入，也可以用flush等待其持久化
+     */
+    long logAsync(byte[] data);
+
+    /**
+     * 等待end之前的日志都被持久化
+     */
+    void flush(long end);
+
+    /**
+     * 日志中最早的LSN，之前的日志段已被回收
+     */
+    long begin();
+
+    /**
+     * 当前日志末尾的位置，已经写入的日志都在该位置之前
+     */
+    long end();
+
+    /**
+     * 回收完全位于lsn之前的日志段，lsn之后的日志仍然可读
+     */
+    void purge(long lsn);
+
+    /**
+     * 日志段和各个LSN位置的描述，供管理命令展示
+     */
+    String status();
 
     /**
      * 截断日志文件到x位置
@@ -26,13 +55,32 @@ public interface Logger {
     byte[] next();
 
     /**
-     * 将日志指针回退到xChecksum之后
+     * 上一次next()读出的日志的LSN
+     */
+    long lsn();
+
+    /**
+     * 将日志指针回退到第一条日志
      */
     void rewind();
 
+    /**
+     * 将日志指针移动到lsn，lsn必须是一条日志的开始位置，早于begin()时移动到第一条日志
+     */
+    void seek(long lsn);
+
     void close();
 
     public static LoggerImpl create(String path) {
+        return create(path, LoggerImpl.SEGMENT_SIZE);
+    }
+
+    /**
+     * 创建一个新的日志
+     *
+     * @param segmentSize 日志段大小，不能小于LoggerImpl.MIN_SEGMENT_SIZE
+     */
+    public static LoggerImpl create(String path, long segmentSize) {
         File f = new File(path + LoggerImpl.LOG_SUFFIX);
         try {
             if (!f.createNewFile()) {
@@ -55,16 +103,10 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
+        LoggerImpl lg = new LoggerImpl(path, raf, fc);
+        lg.create(segmentSize);
 
-        return new LoggerImpl(raf, fc, 0);
+        return lg;
     }
 
     public static LoggerImpl open(String path) {
@@ -85,7 +127,7 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+        LoggerImpl lg = new LoggerImpl(path, raf, fc);
         lg.init();
 
         return lg;
@@ -1,86 +1,208 @@
 package com.antares.db.backend.dm.logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.Parser;
 import com.antares.db.common.Error;
-import com.google.common.primitives.Bytes;
 
 /**
  * 日志文件读写
- * 
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的Checksum，int类型
- * 
+ *
+ * 日志按LSN(日志中的字节位置，单调递增)切分为固定大小的日志段，
+ * 第n个日志段保存在文件path.log.n中，覆盖LSN范围[n*SegmentSize, (n+1)*SegmentSize)
+ * 一条日志不会跨越两个日志段，段尾放不下时剩余空间填0，日志从下一段开头继续
+ *
+ * path.log是控制文件：
+ * [FirstLSN] [SegmentSize]
+ * FirstLSN 8字节long，日志中最早的LSN，之前的日志段已被回收，只在回收日志段时改写
+ * SegmentSize 8字节long
+ *
+ * 每个日志段的标准格式为：
+ * [Log1] [Log2] ... [LogN] [Padding/BadTail]
+ * 没有需要随追加而改写的文件头，追加日志是纯粹的顺序写
+ *
  * 每条正确日志的格式为：
- * [Size] [Checksum] [Data]
+ * [Size] [Checksum] [LSN] [Data]
  * Size 4字节int 标识Data长度
- * Checksum 4字节int
+ * Checksum 4字节int，Size和Data的CRC32C
+ * LSN 8字节long，这条日志的位置，打开日志时用来识别不属于本日志的残留数据
+ *
+ * 读到一条不合法的日志时，如果存在下一个日志段则从下一段开头继续，否则即为日志末尾
+ * 打开日志时顺序校验一遍，最后一条合法日志之后的部分即为BadTail
+ * 顺序读日志时每次从日志段读入1MB到读缓冲区，日志在缓冲区中直接解析和校验，
+ * 打开日志时的校验不拷贝日志，next()只拷贝一次Data
+ *
+ * 组提交：
+ * 写日志的线程只把日志追加到内存中的日志缓冲区，然后等待其被持久化；
+ * 同一时刻只有一个线程(flusher)把缓冲区中已积累的所有日志一次写入文件并force，
+ * 完成后唤醒所有日志已被覆盖的等待者，一次fsync可以提交多个并发写入的日志
+ * 写满一个日志段时先force该段再写下一段，所以后一段中有数据时前一段一定是完整的
+ *
+ * 异步写入：logAsync只追加到日志缓冲区，不等待持久化，由后台线程每FLUSH_INTERVAL_MILLIS写入一次；
+ * 未持久化的日志超过MAX_UNFLUSHED_BYTES时，写日志的线程自己完成写入，崩溃时最多丢失这两个界限内的日志
  */
 public class LoggerImpl implements Logger {
 
-    private static final int SEED = 13331;
-
     private static final int OF_SIZE = 0;
     private static final int OF_CHECKSUM = OF_SIZE + 4;
-    private static final int OF_DATA = OF_CHECKSUM + 4;
+    private static final int OF_LSN = OF_CHECKSUM + 4;
+    private static final int OF_DATA = OF_LSN + 8;
+
+    private static final int OF_FIRST_LSN = 0;
+    private static final int OF_SEGMENT_SIZE = OF_FIRST_LSN + 8;
+    private static final int LEN_CONTROL = OF_SEGMENT_SIZE + 8;
 
     public static final String LOG_SUFFIX = ".log";
 
-    private RandomAccessFile file;
+    // 默认的日志段大小，64MB
+    public static final long SEGMENT_SIZE = 1L << 26;
+    // 日志段大小的下限，需要能放下最大的一条日志
+    public static final long MIN_SEGMENT_SIZE = 1L << 16;
+
+    // 日志缓冲区的初始大小
+    private static final int BUFFER_SIZE = 1 << 16;
+    // 读日志时每次读入的大小，1MB
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    // 后台线程写入异步日志的间隔
+    public static final long FLUSH_INTERVAL_MILLIS = 100;
+    // 未持久化的日志的上限，1MB
+    public static final long MAX_UNFLUSHED_BYTES = 1 << 20;
+
+    private String path;
+    private RandomAccessFile file; // 控制文件
     private FileChannel fc;
     private Lock lock;
 
-    private long position;  //当前日志指针位置
-    private long fileSize;  //日志文件大小
-    private int xChecksum; //当前日志校验和
+    private long segmentSize;
+    private volatile long firstLsn;
+    private ConcurrentSkipListMap<Long, RandomAccessFile> segments; // 段号 -> 日志段文件
+    private Lock segmentLock; // 创建和回收日志段时加锁
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
+    private long position;  //当前日志指针位置
+    private long lastLsn;   //上一条读出的日志的LSN
+
+    // 顺序读日志的缓冲区，缓存某个日志段中从readStart开始的readLen字节，由lock保护
+    // 文件中已有的内容只会被truncate改写，truncate时清空缓冲区
+    private byte[] readBuf;
+    private ByteBuffer readView; // readBuf的视图，用于按偏移解析整数
+    private long readStart;
+    private int readLen;
+
+    // 日志缓冲区，由lock保护
+    private byte[] buffer;
+    private int bufferLen;
+    private long bufferStart; // 缓冲区中第一个字节的LSN
+    private byte[] spare;     // 另一块缓冲区，flusher写文件时写日志的线程使用它，只被flusher访问
+
+    // 组提交
+    private Lock flushLock;
+    private Condition flushDone;
+    private boolean flushing; // 是否有线程正在写文件，由flushLock保护
+    private volatile long flushedEnd; // 已持久化的日志末尾LSN
+    private AtomicLong syncs; // 持久化日志段(force)的次数
+
+    private Thread flusher; // 定期写入异步日志的后台线程
+    private volatile boolean closed;
+
+    LoggerImpl(String path, RandomAccessFile raf, FileChannel fc) {
+        this.path = path;
         this.file = raf;
         this.fc = fc;
         this.lock = new ReentrantLock();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.segmentLock = new ReentrantLock();
+        this.buffer = new byte[BUFFER_SIZE];
+        this.spare = new byte[BUFFER_SIZE];
+        this.flushLock = new ReentrantLock();
+        this.flushDone = flushLock.newCondition();
+        this.syncs = new AtomicLong(0);
+        this.readBuf = new byte[READ_BUFFER_SIZE];
+        this.readView = ByteBuffer.wrap(readBuf);
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
-        this.lock = new ReentrantLock();
-        this.xChecksum = xChecksum;
+    /**
+     * 新建日志时写入控制文件
+     */
+    void create(long segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        this.segmentSize = segmentSize;
+        this.firstLsn = 0;
+        writeControl();
+        startFlusher();
     }
 
     void init() {
-        long size = 0;
+        ByteBuffer raw = ByteBuffer.allocate(LEN_CONTROL);
         try {
-            size = file.length();
-        } catch (Exception e) {
+            while (raw.hasRemaining()) {
+                if (fc.read(raw, raw.position()) < 0) {
+                    Panic.panic(Error.BadLogFileException);
+                }
+            }
+        } catch (IOException e) {
             Panic.panic(e);
         }
-
-        if(size < 4) {
-            Panic.panic(Error.BadLogFileException);   
+        byte[] control = raw.array();
+        this.firstLsn = Parser.parseLong(Arrays.copyOfRange(control, OF_FIRST_LSN, OF_SEGMENT_SIZE));
+        this.segmentSize = Parser.parseLong(Arrays.copyOfRange(control, OF_SEGMENT_SIZE, LEN_CONTROL));
+        if (segmentSize < MIN_SEGMENT_SIZE || firstLsn % segmentSize != 0) {
+            Panic.panic(Error.BadLogFileException);
         }
 
-        // 读取日志文件头部4个byte的校验和
-        ByteBuffer raw = ByteBuffer.allocate(4);
-        try {
-            fc.position(0);
-            fc.read(raw);
-        } catch (Exception e) {
-            Panic.panic(e);
+        // 打开所有日志段，回收日志段时崩溃可能留下FirstLSN之前的日志段，直接删除
+        long firstSegment = firstLsn / segmentSize;
+        for (File f : segmentFiles(path)) {
+            long idx = segmentIndex(f);
+            if (idx < firstSegment) {
+                f.delete();
+                continue;
+            }
+            try {
+                segments.put(idx, new RandomAccessFile(f, "rw"));
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
         }
 
-        this.xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-
         checkAndRemoveTail();
+        startFlusher();
+    }
+
+    /**
+     * 启动后台线程，每FLUSH_INTERVAL_MILLIS把缓冲区中积累的异步日志写入文件
+     * 线程用park等待，close时unpark唤醒；不能中断它：中断正在读写FileChannel的线程会关闭该channel
+     */
+    private void startFlusher() {
+        flusher = new Thread(() -> {
+            while (!closed) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+                if (closed) {
+                    break;
+                }
+                flush(Long.MAX_VALUE);
+            }
+        }, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
     }
 
     /**
@@ -88,16 +210,7 @@ public class LoggerImpl implements Logger {
      */
     private void checkAndRemoveTail() {
         rewind();
-
-        int xCheck = 0;
-        while(true) {
-            // 一段日志
-            byte[] log = internNext();
-            if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if(xCheck != this.xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+        while(internNext() >= 0) {
         }
 
         try {
@@ -105,108 +218,376 @@ public class LoggerImpl implements Logger {
         } catch (Exception e) {
             Panic.panic(e);
         }
-
-        try {
-            // 设置下次写操作的位置
-            file.seek(position);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
         rewind();
     }
 
     /**
-     * 读取下一条日志，返回数据内容
+     * 读取下一条日志，返回整条日志的长度，没有下一条日志时返回-1
+     * 返回时整条日志位于读缓冲区的lastLsn - readStart处
      */
-    private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
-            return null;
+    private int internNext() {
+        while (true) {
+            int len = readLog(position);
+            if (len >= 0) {
+                // 这段日志是合法的，移动到下一段日志的开始位置
+                lastLsn = position;
+                position += len;
+                return len;
+            }
+            // 本段已经读完，存在下一段时从下一段开头继续
+            long next = (position / segmentSize + 1) * segmentSize;
+            if (!segments.containsKey(next / segmentSize)) {
+                return -1;
+            }
+            position = next;
         }
+    }
 
+    /**
+     * 在读缓冲区中校验LSN为lsn的日志，合法时返回整条日志的长度，不存在或不合法时返回-1
+     * 日志直接在缓冲区中解析和计算校验和，不做拷贝
+     */
+    private int readLog(long lsn) {
+        if (!fill(lsn, OF_DATA)) {
+            return -1;
+        }
         // 头4字节是这段日志的长度
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try {
-            fc.position(position);
-            fc.read(tmp);
-        } catch (Exception e) {
-            Panic.panic(e);
+        int size = readView.getInt((int) (lsn - readStart) + OF_SIZE);
+        if (size < 0 || size > segmentSize - OF_DATA || !fill(lsn, OF_DATA + size)) {
+            return -1;
         }
-        int size = Parser.parseInt(tmp.array());
-        if(position + OF_DATA + size > fileSize) {
-            return null;
+
+        int off = (int) (lsn - readStart);
+        CRC32C crc = new CRC32C();
+        crc.update(readBuf, off + OF_SIZE, OF_CHECKSUM - OF_SIZE);
+        crc.update(readBuf, off + OF_DATA, size);
+        if ((int) crc.getValue() != readView.getInt(off + OF_CHECKSUM)
+                || readView.getLong(off + OF_LSN) != lsn) {
+            return -1;
         }
+        return OF_DATA + size;
+    }
 
-        ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
+    /**
+     * 保证日志段中[lsn, lsn+len)的内容在读缓冲区中
+     * 不在时从lsn开始一次读入尽量多的内容(不超出所在日志段)，日志段中不足len字节时返回false
+     */
+    private boolean fill(long lsn, int len) {
+        if (lsn >= readStart && lsn + len <= readStart + readLen) {
+            return true;
+        }
+        long offset = lsn % segmentSize;
+        if (offset + len > segmentSize) {
+            return false;
+        }
+        RandomAccessFile seg = segments.get(lsn / segmentSize);
+        if (seg == null) {
+            return false;
+        }
+        if (len > readBuf.length) {
+            // 超过缓冲区的大日志
+            readBuf = new byte[len];
+            readView = ByteBuffer.wrap(readBuf);
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(readBuf, 0, (int) Math.min(readBuf.length, segmentSize - offset));
+        readStart = lsn;
+        readLen = 0;
         try {
-            fc.position(position);
-            fc.read(buf);
-        } catch (Exception e) {
+            while (buf.position() < len) {
+                if (seg.getChannel().read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
             Panic.panic(e);
         }
+        readLen = buf.position();
+        return readLen >= len;
+    }
+
+    /**
+     * 计算Size和Data的CRC32C
+     */
+    private static int calChecksum(byte[] log) {
+        CRC32C crc = new CRC32C();
+        crc.update(log, OF_SIZE, OF_CHECKSUM - OF_SIZE);
+        crc.update(log, OF_DATA, log.length - OF_DATA);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public long log(byte[] data) {
+        long lsn = append(data);
+        flush(lsn + OF_DATA + data.length);
+        return lsn;
+    }
+
+    @Override
+    public long logAsync(byte[] data) {
+        long lsn = append(data);
+        long end = lsn + OF_DATA + data.length;
+        if (end - flushedEnd > MAX_UNFLUSHED_BYTES) {
+            flush(end);
+        }
+        return lsn;
+    }
 
-        // 验证这段日志的checksum，即byte求和
-        byte[] log = buf.array();
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if(checkSum1 != checkSum2) {
-            return null;
+    /**
+     * 把一条日志追加到日志缓冲区，返回其LSN
+     */
+    private long append(byte[] data) {
+        // 校验和在锁外计算，锁内只填入LSN并拷贝到缓冲区
+        byte[] log = new byte[OF_DATA + data.length];
+        if (log.length > segmentSize) {
+            Panic.panic(Error.DataTooLargeException);
         }
+        System.arraycopy(Parser.int2Byte(data.length), 0, log, OF_SIZE, 4);
+        System.arraycopy(data, 0, log, OF_DATA, data.length);
+        System.arraycopy(Parser.int2Byte(calChecksum(log)), 0, log, OF_CHECKSUM, 4);
 
-        // 这段日志是合法的，移动到下一段日志的开始位置
-        position += log.length;
-        return log;
+        long lsn;
+        lock.lock();
+        try {
+            lsn = bufferStart + bufferLen;
+            long remain = segmentSize - lsn % segmentSize;
+            if (log.length > remain) {
+                // 本段放不下，剩余空间填0，从下一段开头写入
+                appendBytes(new byte[(int) remain]);
+                lsn += remain;
+            }
+            System.arraycopy(Parser.long2Byte(lsn), 0, log, OF_LSN, 8);
+            appendBytes(log);
+        } finally {
+            lock.unlock();
+        }
+        return lsn;
     }
 
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    /**
+     * 追加到日志缓冲区，调用方持有lock
+     */
+    private void appendBytes(byte[] bytes) {
+        if (bufferLen + bytes.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLen + bytes.length));
         }
-        return xCheck;
+        System.arraycopy(bytes, 0, buffer, bufferLen, bytes.length);
+        bufferLen += bytes.length;
     }
 
     @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+    public long begin() {
+        return firstLsn;
+    }
+
+    @Override
+    public long end() {
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
-            updateXChecksum(log);
-        } catch (IOException e) {
-            Panic.panic(e);
+            return bufferStart + bufferLen;
         } finally {
             lock.unlock();
         }
     }
 
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    /**
+     * 等待end之前的日志被持久化，end超出日志末尾时只等待已写入的日志
+     * 没有其他线程在写文件时，当前线程成为flusher，把缓冲区中的所有日志一次写入
+     */
+    @Override
+    public void flush(long end) {
+        if (flushedEnd >= end) {
+            return;
+        }
+        end = Math.min(end, end());
+        flushLock.lock();
+        try {
+            while (flushedEnd < end) {
+                if (flushing) {
+                    flushDone.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                flushLock.unlock();
+                try {
+                    writeBuffer();
+                } finally {
+                    flushLock.lock();
+                    flushing = false;
+                    flushDone.signalAll();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
     }
 
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    /**
+     * 取走缓冲区中的日志，写入日志段并force，只由flusher调用
+     */
+    private void writeBuffer() {
+        byte[] data;
+        int len;
+        long start;
+        lock.lock();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(this.xChecksum)));
-            fc.force(false);
+            data = buffer;
+            len = bufferLen;
+            start = bufferStart;
+            buffer = spare;
+            bufferLen = 0;
+            bufferStart += len;
+        } finally {
+            lock.unlock();
+        }
+        if (len == 0) {
+            return;
+        }
+
+        try {
+            long lsn = start;
+            int off = 0;
+            FileChannel last = null;
+            while (off < len) {
+                long idx = lsn / segmentSize;
+                long segEnd = (idx + 1) * segmentSize;
+                int n = (int) Math.min(len - off, segEnd - lsn);
+                FileChannel sfc = segment(idx).getChannel();
+                ByteBuffer buf = ByteBuffer.wrap(data, off, n);
+                long offset = lsn % segmentSize - off;
+                while (buf.hasRemaining()) {
+                    sfc.write(buf, offset + buf.position());
+                }
+                off += n;
+                lsn += n;
+                if (lsn == segEnd) {
+                    // 写满的段先持久化，再写下一段
+                    sfc.force(false);
+                    syncs.incrementAndGet();
+                    last = null;
+                } else {
+                    last = sfc;
+                }
+            }
+            if (last != null) {
+                last.force(false);
+                syncs.incrementAndGet();
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
+        spare = data;
+        flushedEnd = start + len;
+    }
+
+    /**
+     * 获取第idx个日志段，不存在时创建
+     */
+    private RandomAccessFile segment(long idx) throws IOException {
+        RandomAccessFile seg = segments.get(idx);
+        if (seg != null) {
+            return seg;
+        }
+        segmentLock.lock();
+        try {
+            seg = segments.get(idx);
+            if (seg == null) {
+                seg = new RandomAccessFile(segmentFile(path, idx), "rw");
+                segments.put(idx, seg);
+            }
+            return seg;
+        } finally {
+            segmentLock.unlock();
+        }
     }
 
+    /**
+     * 截断日志到x位置：截断x所在的日志段，删除其后的日志段
+     */
     @Override
     public void truncate(long x) throws Exception {
         lock.lock();
+        segmentLock.lock();
         try {
-            fc.truncate(x);
+            long idx = x / segmentSize;
+            RandomAccessFile seg = segments.get(idx);
+            if (seg != null) {
+                seg.getChannel().truncate(x % segmentSize);
+            }
+            for (Map.Entry<Long, RandomAccessFile> e : segments.tailMap(idx, false).entrySet()) {
+                e.getValue().close();
+                segmentFile(path, e.getKey()).delete();
+                segments.remove(e.getKey());
+            }
+            readLen = 0;
+            // 设置下次写操作的位置
+            bufferStart = x;
+            bufferLen = 0;
+            flushedEnd = x;
         } finally {
+            segmentLock.unlock();
             lock.unlock();
         }
     }
 
+    /**
+     * 回收完全位于lsn之前的日志段
+     * 先持久化控制文件中新的FirstLSN再删除文件，删除前崩溃时遗留的日志段在打开时删除
+     */
+    @Override
+    public void purge(long lsn) {
+        long idx = Math.min(lsn, flushedEnd) / segmentSize;
+        segmentLock.lock();
+        try {
+            if (idx * segmentSize <= firstLsn) {
+                return;
+            }
+            firstLsn = idx * segmentSize;
+            writeControl();
+            for (Map.Entry<Long, RandomAccessFile> e : segments.headMap(idx, false).entrySet()) {
+                e.getValue().close();
+                segmentFile(path, e.getKey()).delete();
+                segments.remove(e.getKey());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            segmentLock.unlock();
+        }
+    }
+
+    @Override
+    public String status() {
+        long end = end();
+        return "segments: " + firstLsn / segmentSize + " - " + end / segmentSize
+                + ", segment size: " + segmentSize
+                + ", first lsn: " + firstLsn
+                + ", durable lsn: " + flushedEnd
+                + ", end lsn: " + end;
+    }
+
+    /**
+     * 持久化日志段的总次数
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    private void writeControl() {
+        byte[] control = new byte[LEN_CONTROL];
+        System.arraycopy(Parser.long2Byte(firstLsn), 0, control, OF_FIRST_LSN, 8);
+        System.arraycopy(Parser.long2Byte(segmentSize), 0, control, OF_SEGMENT_SIZE, 8);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(control);
+            while (buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
     /**
      * 根据当前的日志指针位置，读取下一条日志
      */
@@ -214,9 +595,20 @@ public class LoggerImpl implements Logger {
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if(log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            int len = internNext();
+            if(len < 0) return null;
+            int off = (int) (lastLsn - readStart);
+            return Arrays.copyOfRange(readBuf, off + OF_DATA, off + len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long lsn() {
+        lock.lock();
+        try {
+            return lastLsn;
         } finally {
             lock.unlock();
         }
@@ -224,17 +616,81 @@ public class LoggerImpl implements Logger {
 
     @Override
     public void rewind() {
-        this.position = 4; // 跳过文件头的xChecksum
+        this.position = firstLsn;
+    }
+
+    @Override
+    public void seek(long lsn) {
+        lock.lock();
+        try {
+            this.position = Math.max(lsn, firstLsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止后台刷日志线程，之后异步日志只在显式flush时写入
+     */
+    public void stopFlusher() {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
     }
 
     @Override
     public void close() {
+        stopFlusher();
+        flush(end());
         try {
+            for (RandomAccessFile seg : segments.values()) {
+                seg.close();
+            }
             fc.close();
             file.close();
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
-    
-}
\ No newline at end of file
+
+    // region Utils
+
+    static File segmentFile(String path, long idx) {
+        return new File(path + LOG_SUFFIX + "." + idx);
+    }
+
+    private static long segmentIndex(File f) {
+        String name = f.getName();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * path对应的所有日志段文件
+     */
+    public static List<File> segmentFiles(String path) {
+        File control = new File(path + LOG_SUFFIX);
+        File dir = control.getAbsoluteFile().getParentFile();
+        String prefix = control.getName() + ".";
+        List<File> files = new ArrayList<>();
+        File[] all = dir.listFiles();
+        if (all == null) {
+            return files;
+        }
+        for (File f : all) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.length() > prefix.length()
+                    && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    // endregion
+}
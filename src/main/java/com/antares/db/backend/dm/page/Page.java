@@ -6,6 +6,13 @@ public interface Page {
     void release();
     void setDirty(boolean dirty);
     boolean isDirty();
+
+    /**
+     * 开始/结束一次"先修改页面、后写日志"的原地修改(DataItem.before/after)
+     * 两者之间页面上存在尚未写日志的修改，后台写回会跳过该页，保证写入磁盘的页面只含已写日志的修改
+     */
+    void beginUpdate();
+    void endUpdate();
     int getPageNumber();
     byte[] getData();
 }
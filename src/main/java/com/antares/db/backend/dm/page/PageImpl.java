@@ -8,7 +8,8 @@ import com.antares.db.backend.dm.pageCache.PageCache;
 public class PageImpl implements Page {
     private int pageNumber;
     private byte[] data;
-    private boolean dirty;  // 页面是否被修改过(脏页)
+    private volatile boolean dirty;  // 页面是否被修改过(脏页)
+    private int updating;   // 正在进行的、尚未写日志的原地修改数，由lock保护
     private Lock lock;
 
     private PageCache pc;
@@ -20,6 +21,34 @@ public class PageImpl implements Page {
         this.lock = new ReentrantLock();
     }
 
+    /**
+     * 复用当前页框装载另一个页面，调用方保证该页框已不再被引用
+     */
+    public void reuse(int pageNumber) {
+        this.pageNumber = pageNumber;
+        this.dirty = false;
+        this.updating = 0;
+    }
+
+    /**
+     * 在页面锁内拷贝出一份可以写回的页面镜像，并清除脏标记
+     *
+     * @return 页面是脏页且没有尚未写日志的原地修改时返回true，否则不拷贝并返回false
+     */
+    public boolean snapshot(byte[] dst) {
+        lock.lock();
+        try {
+            if (!dirty || updating > 0) {
+                return false;
+            }
+            System.arraycopy(data, 0, dst, 0, data.length);
+            dirty = false;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void lock() {
         lock.lock();
@@ -45,6 +74,28 @@ public class PageImpl implements Page {
         return dirty;
     }
 
+    @Override
+    public void beginUpdate() {
+        lock.lock();
+        try {
+            updating++;
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        lock.lock();
+        try {
+            updating--;
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public int getPageNumber() {
         return pageNumber;
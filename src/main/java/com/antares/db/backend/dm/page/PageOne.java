@@ -3,6 +3,7 @@ package com.antares.db.backend.dm.page;
 import java.util.Arrays;
 
 import com.antares.db.backend.dm.pageCache.PageCache;
+import com.antares.db.backend.utils.Parser;
 import com.antares.db.backend.utils.RandomUtil;
 
 /**
@@ -11,10 +12,18 @@ import com.antares.db.backend.utils.RandomUtil;
  * ValidCheck
  * db启动时给100~107字节填入一个随机值，db关闭时将其拷贝到108~115字节
  * 再次启动时根据100~107和108~115字节判断db是否正常关闭
+ *
+ * Checkpoint
+ * 116~123字节记录最近一条检查点日志的位置，恢复时从该日志记录的位置开始，而不是从日志开头开始
+ * PageOne只在检查点时随检查点日志一起修改，这一字段同时也是PageOne的页面LSN
+ * 124~127字节记录检查点时的页面数，检查点之前的日志可能已被回收，恢复时不能截掉这些页面
  */
 public class PageOne {
     private static final int OF_VC = 100; // ValidCheck起始偏移
     private static final int LEN_VC = 8;  // ValidCheck长度
+    private static final int OF_CKPT = OF_VC + 2 * LEN_VC; // Checkpoint偏移
+    private static final int LEN_CKPT = 8;
+    private static final int OF_CKPT_PAGES = OF_CKPT + LEN_CKPT; // 检查点时的页面数偏移
 
     public static byte[] initRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
@@ -51,4 +60,35 @@ public class PageOne {
     private static boolean checkVc(byte[] raw) {
         return Arrays.equals(Arrays.copyOfRange(raw, OF_VC, OF_VC+LEN_VC), Arrays.copyOfRange(raw, OF_VC+LEN_VC, OF_VC+2*LEN_VC));
     }
+
+    /**
+     * 记录检查点日志的位置和检查点时的页面数
+     */
+    public static void setCheckpoint(Page pg, long position, int pages) {
+        pg.setDirty(true);
+        System.arraycopy(Parser.long2Byte(position), 0, pg.getData(), OF_CKPT, LEN_CKPT);
+        System.arraycopy(Parser.int2Byte(pages), 0, pg.getData(), OF_CKPT_PAGES, 4);
+    }
+
+    /**
+     * PageOne的页面LSN，即最近一条检查点日志的位置
+     */
+    public static long getPageLsn(Page pg) {
+        return getPageLsn(pg.getData());
+    }
+
+    /**
+     * 从PageOne的数据(或其镜像)中读取页面LSN
+     */
+    public static long getPageLsn(byte[] raw) {
+        return Parser.parseLong(Arrays.copyOfRange(raw, OF_CKPT, OF_CKPT + LEN_CKPT));
+    }
+
+    public static long getCheckpoint(Page pg) {
+        return Parser.parseLong(Arrays.copyOfRange(pg.getData(), OF_CKPT, OF_CKPT + LEN_CKPT));
+    }
+
+    public static int getCheckpointPages(Page pg) {
+        return Parser.parseInt(Arrays.copyOfRange(pg.getData(), OF_CKPT_PAGES, OF_CKPT_PAGES + 4));
+    }
 }
@@ -7,11 +7,16 @@ import com.antares.db.backend.utils.Parser;
 
 /*
  * 普通页
+ * [FreeSpaceOffset(2)] [PageLSN(8)] [Data]
+ *
+ * PageLSN是最后一条修改了本页的日志的LSN，页面写回时随页面一起落盘；
+ * 恢复时LSN不大于PageLSN的日志所做的修改已经在页面中，无需redo
  */
 public class PageX {
     // 开头的两个字节存储空闲指针，指向本页中第一个空闲的byte
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
+    private static final short OF_LSN = 2;
+    private static final short OF_DATA = 10;
     public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
 
     public static byte[] initRaw() {
@@ -25,7 +30,7 @@ public class PageX {
      * 把ofData写入页数据的前两个字节，表示空闲指针
      */
     private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_LSN - OF_FREE);
     }
 
     /*
@@ -37,9 +42,11 @@ public class PageX {
 
     /*
      * 读取页数据前两个字节，获取空闲指针
+     * 新页面在崩溃前可能还没有写入文件，读出来是全0的，视为空页
      */
     private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, OF_FREE, OF_DATA));
+        short fso = Parser.parseShort(Arrays.copyOfRange(raw, OF_FREE, OF_LSN));
+        return fso == 0 ? OF_DATA : fso;
     }
 
     /*
@@ -55,6 +62,30 @@ public class PageX {
         return offset;
     }
 
+    /*
+     * 读取页面LSN
+     */
+    public static long getPageLsn(Page pg) {
+        return getPageLsn(pg.getData());
+    }
+
+    /*
+     * 从页面数据(或其镜像)中读取页面LSN
+     */
+    public static long getPageLsn(byte[] raw) {
+        return Parser.parseLong(Arrays.copyOfRange(raw, OF_LSN, OF_DATA));
+    }
+
+    /*
+     * 修改页面后记录对应日志的LSN，调用方持有页面锁
+     * 同一页面上不同DataItem的修改可能以与LSN不同的顺序完成，只保留较大的LSN
+     */
+    public static void setPageLsn(Page pg, long lsn) {
+        if (lsn > getPageLsn(pg)) {
+            System.arraycopy(Parser.long2Byte(lsn), 0, pg.getData(), OF_LSN, OF_DATA - OF_LSN);
+        }
+    }
+
     /*
      * 获取页中剩余的空闲空间大小
      */
@@ -0,0 +1,110 @@
+package com.antares.db.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.antares.db.backend.common.EvictionPolicy;
+
+/**
+ * 以内存映射方式访问数据库文件的页面缓存
+ *
+ * 数据库文件按CHUNK_SIZE分块映射，访问到尚未映射的块时才映射(同时按块扩展文件)；
+ * 读页是一次内存拷贝而不是系统调用，刷页对应MappedByteBuffer.force该页所在的范围
+ *
+ * 页面不直接引用映射区域，而是拷贝到页框中：
+ * 映射区域中的修改随时可能被操作系统写回文件，如果页面原地修改映射区域，就无法保证日志先于数据页持久化；
+ * 拷贝只发生在缓存未命中时，页框在驱逐后复用，不会增加分配
+ *
+ * 映射期间不能缩小文件(访问被截掉的映射区域会导致SIGBUS)，
+ * 所以truncateByPgno只修改页数，关闭时才把文件长度截到实际页数
+ */
+public class MappedPageCacheImpl extends PageCacheImpl {
+    // 每个映射块64MB，必须是PAGE_SIZE的整数倍
+    private static final int CHUNK_SIZE = 1 << 26;
+
+    private volatile MappedByteBuffer[] chunks;
+    private Lock mapLock; // 映射新块时加锁，读取已映射的块无需加锁
+
+    MappedPageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, Supplier<EvictionPolicy> policy) {
+        super(file, fileChannel, maxResource, policy);
+        this.chunks = new MappedByteBuffer[0];
+        this.mapLock = new ReentrantLock();
+    }
+
+    @Override
+    protected void readPage(int pgno, byte[] data) throws IOException {
+        long offset = pageOffset(pgno);
+        chunk(offset).get((int) (offset % CHUNK_SIZE), data, 0, PAGE_SIZE);
+    }
+
+    @Override
+    protected void writePage(int pgno, byte[] data) throws IOException {
+        long offset = pageOffset(pgno);
+        chunk(offset).put((int) (offset % CHUNK_SIZE), data, 0, PAGE_SIZE);
+    }
+
+    @Override
+    protected void writePages(int pgno, ByteBuffer[] bufs, int n) throws IOException {
+        // 映射模式下写页是内存拷贝，没有系统调用可以合并
+        for (int i = 0; i < n; i++) {
+            writePage(pgno + i, bufs[i].array());
+        }
+    }
+
+    @Override
+    protected void forcePage(int pgno) throws IOException {
+        long offset = pageOffset(pgno);
+        chunk(offset).force((int) (offset % CHUNK_SIZE), PAGE_SIZE);
+    }
+
+    @Override
+    protected void forceFile() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    protected void truncateFile(long size) throws IOException {
+        // 映射期间不缩小文件，关闭时再截断
+    }
+
+    @Override
+    protected void closeFile() throws IOException {
+        file.setLength(pageOffset(pageNumbers.get() + 1));
+        super.closeFile();
+    }
+
+    /**
+     * 获取offset所在的映射块，尚未映射时进行映射
+     */
+    private MappedByteBuffer chunk(long offset) throws IOException {
+        int idx = (int) (offset / CHUNK_SIZE);
+        MappedByteBuffer[] cs = chunks;
+        if (idx < cs.length) {
+            return cs[idx];
+        }
+        mapLock.lock();
+        try {
+            cs = chunks;
+            if (idx >= cs.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(cs, idx + 1);
+                for (int i = cs.length; i <= idx; i++) {
+                    grown[i] = fc.map(FileChannel.MapMode.READ_WRITE, (long) i * CHUNK_SIZE, CHUNK_SIZE);
+                }
+                chunks = grown;
+                cs = grown;
+            }
+            return cs[idx];
+        } finally {
+            mapLock.unlock();
+        }
+    }
+}
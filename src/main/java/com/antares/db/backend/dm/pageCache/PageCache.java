@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import com.antares.db.backend.common.EvictionPolicy;
 
 import com.antares.db.backend.dm.page.Page;
 import com.antares.db.backend.utils.Panic;
@@ -58,15 +62,50 @@ public interface PageCache {
      */
     void flushPage(Page page);
 
+    /**
+     * 将缓存中的所有脏页按页号顺序写回，整批只持久化(force)一次
+     * 页面被写回后只是变为干净页，仍然留在缓存中
+     *
+     * @return 是否所有脏页都已写回(正在被原地修改的页面会被跳过)
+     */
+    boolean flushDirtyPages();
+
+    /**
+     * 预读提示：调用方接下来将从pgno开始顺序访问页面
+     * 页面缓存会异步地把pgno之后的若干页面读入缓存，不阻塞调用方
+     *
+     * @param pgno 顺序访问的起始页号
+     */
+    void readAhead(int pgno);
+
+    /**
+     * 设置写回页面前持久化日志的操作：页面写回文件前以其页面LSN调用logFlusher，
+     * 修改该页面的日志先于页面持久化(WAL)，日志异步写入时也不会出现日志中没有的修改
+     *
+     * @param logFlusher 参数为页面LSN，返回时该LSN处的日志已持久化
+     */
+    void setLogFlusher(LongConsumer logFlusher);
+
     /**
      * 关闭页面缓存，释放相关资源。
      */
     void close();
 
+    public static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, false);
+    }
+
+    public static PageCacheImpl create(String path, long memory, boolean mmap) {
+        return create(path, memory, mmap, EvictionPolicy.lru());
+    }
+
     /**
      * 创建一个新的页面缓存实例
+     *
+     * @param mmap 是否以内存映射方式访问数据库文件
+     * @param policy 页面的替换策略
      */
-    public static PageCacheImpl create(String path, long memory) {
+    public static PageCacheImpl create(String path, long memory, boolean mmap, Supplier<EvictionPolicy> policy) {
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
         try {
             if (!f.createNewFile()) {
@@ -88,13 +127,27 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        if (mmap) {
+            return new MappedPageCacheImpl(raf, fc, (int) (memory / PAGE_SIZE), policy);
+        }
+        return new PageCacheImpl(raf, fc, (int) (memory / PAGE_SIZE), policy);
+    }
+
+    public static PageCache open(String path, long memory) {
+        return open(path, memory, false);
+    }
+
+    public static PageCache open(String path, long memory, boolean mmap) {
+        return open(path, memory, mmap, EvictionPolicy.lru());
     }
 
     /**
      * 打开一个已有的页面缓存实例
+     *
+     * @param mmap 是否以内存映射方式访问数据库文件
+     * @param policy 页面的替换策略
      */
-    public static PageCache open(String path, long memory) {
+    public static PageCache open(String path, long memory, boolean mmap, Supplier<EvictionPolicy> policy) {
         File f = new File(path + PageCacheImpl.DB_SUFFIX);
         if (!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -111,6 +164,9 @@ public interface PageCache {
         } catch (Exception e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int) memory / PAGE_SIZE);
+        if (mmap) {
+            return new MappedPageCacheImpl(raf, fc, (int) (memory / PAGE_SIZE), policy);
+        }
+        return new PageCacheImpl(raf, fc, (int) (memory / PAGE_SIZE), policy);
     }
 }
@@ -4,28 +4,79 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 import com.antares.db.backend.common.AbstractCache;
+import com.antares.db.backend.common.EvictionPolicy;
 import com.antares.db.backend.dm.page.Page;
 import com.antares.db.backend.dm.page.PageImpl;
+import com.antares.db.backend.dm.page.PageOne;
+import com.antares.db.backend.dm.page.PageX;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.common.Error;
 
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     private static final int MEM_MIN_LIMIT = 10;
+    // 一次合并写最多包含的页数
+    private static final int MAX_WRITE_BATCH = 64;
+    // 一个预读窗口的最大页数
+    private static final int READ_AHEAD_PAGES = 32;
+    // 连续顺序访问多少次之后开始预读
+    private static final int READ_AHEAD_TRIGGER = 2;
+    // 关闭时等待正在进行的预读结束的最长时间
+    private static final long MAX_PREFETCH_WAIT_MILLIS = 5000;
     public static final String DB_SUFFIX = ".db";
 
-    private RandomAccessFile file;
-    private FileChannel fc;
-    private Lock fileLock;
+    protected RandomAccessFile file;
+    protected FileChannel fc; // 只使用定位读写(pread/pwrite)，不修改position，多个页面的IO可以并发进行
 
-    private AtomicInteger pageNumbers;
+    protected AtomicInteger pageNumbers;
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    // 空闲页框，页面被驱逐后页框回收到这里供下一次未命中复用，稳定状态下读页无需再分配byte[PAGE_SIZE]
+    private ArrayBlockingQueue<PageImpl> freeFrames;
+
+    // 驱逐时写回脏页不做force，由下一次flushDirtyPages统一持久化
+    // 驱逐写回持有读锁，flushDirtyPages持久化前获取写锁，保证force时已开始的驱逐写回都已完成
+    private ReadWriteLock evictWriteLock;
+
+    // 批量写回时同一时刻只有一个线程在写，batch是复用的页面镜像缓冲区
+    private Lock flushLock;
+    private ByteBuffer[] batch;
+    // 聚集写需要移动channel的position，同一时刻只能有一个
+    private Lock gatherLock;
+
+    // 写回的页数与写文件的系统调用次数，两者之比即每次系统调用平均写回的页数
+    private AtomicLong pagesWritten;
+    private AtomicLong writeCalls;
+
+    // 顺序预读：后台线程把窗口[raStart, raNext)内的页面读入缓存
+    // 访问到窗口后半段(raMarker)时提交下一个窗口，前台顺序读时总是有一个窗口在提前加载
+    // 顺序访问的状态按线程记录，命中路径不共享任何锁，不同线程交错的扫描也互不干扰
+    private ThreadPoolExecutor prefetcher;
+    private ThreadLocal<ReadAheadState> raState;
+    private int readAheadPages;
+    private AtomicLong pagesPrefetched;
+    private volatile boolean closed; // 关闭时通知正在进行的预读尽快结束
+
+    // 写回页面前持久化日志到页面LSN
+    private volatile LongConsumer logFlusher = lsn -> {};
+
+    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, Supplier<EvictionPolicy> policy) {
+        super(maxResource, policy);
         if (maxResource < MEM_MIN_LIMIT) {
             Panic.panic(Error.MemTooSmallException);
         }
@@ -39,8 +90,23 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
         this.file = file;
         this.fc = fileChannel;
-        this.pageNumbers = new AtomicInteger((int) length / PAGE_SIZE); // 计算当前已有的页数
-        this.fileLock = new ReentrantLock();
+        this.pageNumbers = new AtomicInteger((int) (length / PAGE_SIZE)); // 计算当前已有的页数
+        this.freeFrames = new ArrayBlockingQueue<>(maxResource);
+        this.evictWriteLock = new ReentrantReadWriteLock();
+        this.flushLock = new ReentrantLock();
+        this.gatherLock = new ReentrantLock();
+        this.pagesWritten = new AtomicLong(0);
+        this.writeCalls = new AtomicLong(0);
+
+        this.readAheadPages = Math.max(1, Math.min(READ_AHEAD_PAGES, maxResource / 4));
+        this.raState = ThreadLocal.withInitial(ReadAheadState::new);
+        this.pagesPrefetched = new AtomicLong(0);
+        this.prefetcher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(4), r -> {
+                    Thread t = new Thread(r, "page-prefetcher");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardPolicy());
     }
 
     // region PageCache
@@ -48,20 +114,39 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     @Override
     public int newPage(byte[] initData) {
         int pgno = pageNumbers.incrementAndGet();
-        Page page = new PageImpl(pgno, initData, null);
-        try {
-            flushPage(page);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
+        // 新页面直接装入一个页框并标记为脏页，不读文件，之后由批量写回和相邻的页面合并写入文件
+        // 缓存中没有可用的页框时不等待，直接写入文件
+        // 崩溃恢复时，日志中引用到的页面超出文件末尾的部分按全0读出再重做
+        PageImpl pg = frame(pgno);
+        byte[] data = pg.getData();
+        System.arraycopy(initData, 0, data, 0, initData.length);
+        Arrays.fill(data, initData.length, data.length, (byte) 0);
+        pg.setDirty(true);
+        super.put(pgno, pg);
         return pgno;
     }
 
     @Override
     public Page getPage(int pgno) throws Exception {
+        onAccess(pgno);
         return super.get((long) pgno);
     }
 
+    @Override
+    public void readAhead(int pgno) {
+        ReadAheadState ra = raState.get();
+        if (pgno < ra.raStart || pgno >= ra.raNext) {
+            submitReadAhead(ra, pgno);
+        }
+    }
+
+    /**
+     * 预读的总页数(不含已在缓存中而跳过的页面)
+     */
+    public long getPagesPrefetched() {
+        return pagesPrefetched.get();
+    }
+
     @Override
     public int getPageNumber() {
         return pageNumbers.get();
@@ -74,39 +159,119 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     @Override
     public void truncateByPgno(int maxPgno) {
-        long size = pageOffset(maxPgno+1);
         try {
-            file.setLength(size);
+            truncateFile(pageOffset(maxPgno + 1));
         } catch (IOException e) {
             Panic.panic(e);
         }
         pageNumbers.set(maxPgno);
     }
 
+    @Override
+    public void setLogFlusher(LongConsumer logFlusher) {
+        this.logFlusher = logFlusher;
+    }
+
     @Override
     public void flushPage(Page pg) {
         int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
+        logFlusher.accept(pageLsn(pgno, pg.getData()));
+        try {
+            writePage(pgno, pg.getData());
+            forcePage(pgno);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
 
-        fileLock.lock();
+    @Override
+    public boolean flushDirtyPages() {
+        flushLock.lock();
+        // 加锁之后的一切都在try中，出错时finally总能解除引用并释放锁
+        List<Page> pages = Collections.emptyList();
+        boolean all = true;
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
-            fc.force(false);
+            pages = super.pinIf(Page::isDirty);
+            pages.sort(Comparator.comparingInt(Page::getPageNumber));
+            if (batch == null) {
+                batch = new ByteBuffer[MAX_WRITE_BATCH];
+                for (int i = 0; i < MAX_WRITE_BATCH; i++) {
+                    batch[i] = ByteBuffer.allocate(PAGE_SIZE);
+                }
+            }
+            // 页号连续的脏页攒成一批，用一次聚集写写入，写入前持久化到这批镜像中最大的页面LSN
+            int first = 0, n = 0;
+            long maxLsn = 0;
+            for (Page pg : pages) {
+                int pgno = pg.getPageNumber();
+                if (n > 0 && (pgno != first + n || n == MAX_WRITE_BATCH)) {
+                    logFlusher.accept(maxLsn);
+                    writePages(first, batch, n);
+                    n = 0;
+                    maxLsn = 0;
+                }
+                // 在页面锁内拷贝镜像，写文件时不阻塞对该页的修改
+                if (((PageImpl) pg).snapshot(batch[n].array())) {
+                    if (n == 0) {
+                        first = pgno;
+                    }
+                    maxLsn = Math.max(maxLsn, pageLsn(pgno, batch[n].array()));
+                    n++;
+                } else if (pg.isDirty()) {
+                    all = false;
+                }
+            }
+            if (n > 0) {
+                logFlusher.accept(maxLsn);
+                writePages(first, batch, n);
+            }
+            evictWriteLock.writeLock().lock();
+            try {
+                forceFile();
+            } finally {
+                evictWriteLock.writeLock().unlock();
+            }
         } catch (IOException e) {
             Panic.panic(e);
         } finally {
-            fileLock.unlock();
+            for (Page pg : pages) {
+                super.release((long) pg.getPageNumber());
+            }
+            flushLock.unlock();
         }
+        return all;
+    }
+
+    /**
+     * 写回的总页数
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * 写回页面所用的写文件系统调用次数
+     */
+    public long getWriteCalls() {
+        return writeCalls.get();
     }
 
     @Override
     public void close() {
+        // 不能中断预读线程：中断正在读FileChannel的线程会关闭这个共享的channel
+        closed = true;
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(MAX_PREFETCH_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        // 先批量写回，缓存关闭时逐页写回的只剩下干净页
+        flushDirtyPages();
         super.close();
         try {
-            fc.close();
-            file.close();
+            forceFile();
+            closeFile();
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -117,40 +282,208 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     // region AbstractCache
 
     /**
-     * 根据pageNumber从数据库文件中读取页数据，并包装成Page
+     * 根据pageNumber从数据库文件中读取页数据，优先装入回收的空闲页框
      */
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int) key;
-        long offset = PageCacheImpl.pageOffset(pgno);
-
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
+        PageImpl frame = frame(pgno);
         try {
-            fc.position(offset);
-            fc.read(buf);
+            readPage(pgno, frame.getData());
         } catch(IOException e) {
             Panic.panic(e);
-        }finally {
-            fileLock.unlock();
         }
 
-        return new PageImpl(pgno, buf.array(), this);
+        return frame;
     }
 
+    /**
+     * 页面数据(或其镜像)中的页面LSN，写回前日志要持久化到这里
+     * PageOne没有普通页的LSN字段，它的页面LSN是记录的检查点日志位置
+     */
+    private static long pageLsn(int pgno, byte[] data) {
+        return pgno == 1 ? PageOne.getPageLsn(data) : PageX.getPageLsn(data);
+    }
+
+    /**
+     * 为页面pgno取一个页框，优先复用回收的空闲页框
+     */
+    private PageImpl frame(int pgno) {
+        PageImpl frame = freeFrames.poll();
+        if (frame == null) {
+            return new PageImpl(pgno, new byte[PAGE_SIZE], this);
+        }
+        frame.reuse(pgno);
+        return frame;
+    }
+
+    /**
+     * 页面被驱逐：写回脏页(不持久化)，并回收页框
+     */
     @Override
     protected void releaseForCache(Page pg) {
         if(pg.isDirty()) {
-            flushPage(pg);
+            logFlusher.accept(pageLsn(pg.getPageNumber(), pg.getData()));
+            evictWriteLock.readLock().lock();
+            try {
+                writePage(pg.getPageNumber(), pg.getData());
+            } catch (IOException e) {
+                Panic.panic(e);
+            } finally {
+                evictWriteLock.readLock().unlock();
+            }
         }
+        freeFrames.offer((PageImpl) pg);
+    }
+
+    // endregion
+
+    // region ReadAhead
+
+    /**
+     * 一个线程的顺序访问状态
+     */
+    private static class ReadAheadState {
+        int lastPgno;   // 最近一次访问的页号
+        int seqCount;   // 连续顺序访问的次数
+        int raStart, raNext, raMarker;
+    }
+
+    /**
+     * 记录一次页面访问，检测顺序访问并推进预读窗口
+     */
+    private void onAccess(int pgno) {
+        ReadAheadState ra = raState.get();
+        ra.seqCount = pgno == ra.lastPgno + 1 ? ra.seqCount + 1 : 0;
+        ra.lastPgno = pgno;
+        if (pgno >= ra.raMarker && pgno < ra.raNext) {
+            // 访问到当前窗口的后半段，接着预读下一个窗口
+            submitReadAhead(ra, ra.raNext);
+        } else if (ra.seqCount >= READ_AHEAD_TRIGGER && (pgno < ra.raStart || pgno >= ra.raNext)) {
+            // 新的顺序访问流
+            submitReadAhead(ra, pgno + 1);
+        }
+    }
+
+    /**
+     * 提交从start开始的一个预读窗口
+     */
+    private void submitReadAhead(ReadAheadState ra, int start) {
+        int end = Math.min(start + readAheadPages, pageNumbers.get() + 1);
+        if (start >= end) {
+            return;
+        }
+        ra.raStart = start;
+        ra.raNext = end;
+        ra.raMarker = start + (end - start) / 2;
+        prefetcher.execute(() -> prefetch(start, end));
+    }
+
+    /**
+     * 在后台线程中把[start, end)内不在缓存中的页面读入缓存，读入后不持有引用
+     */
+    private void prefetch(int start, int end) {
+        for (int pgno = start; pgno < end; pgno++) {
+            if (closed) {
+                return;
+            }
+            if (super.contains(pgno)) {
+                continue;
+            }
+            try {
+                super.get((long) pgno);
+            } catch (Exception e) {
+                // 缓存中的页面都被引用，放弃本次预读
+                return;
+            }
+            super.release((long) pgno);
+            pagesPrefetched.incrementAndGet();
+        }
+    }
+
+    // endregion
+
+    // region IO
+    // 数据库文件的读写方式，子类可以替换为其他IO方式(如内存映射)
+
+    /**
+     * 读取一页数据到data中，超出文件末尾的部分填0
+     */
+    protected void readPage(int pgno, byte[] data) throws IOException {
+        long offset = pageOffset(pgno);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, offset + buf.position()) < 0) {
+                Arrays.fill(data, buf.position(), data.length, (byte) 0);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 将一页数据写入文件，不保证持久化
+     */
+    protected void writePage(int pgno, byte[] data) throws IOException {
+        long offset = pageOffset(pgno);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            fc.write(buf, offset + buf.position());
+            writeCalls.incrementAndGet();
+        }
+        pagesWritten.incrementAndGet();
+    }
+
+    /**
+     * 将从pgno开始的n个连续页面用聚集写(writev)写入文件，不保证持久化
+     * 写入后bufs[0..n)可以被复用
+     */
+    protected void writePages(int pgno, ByteBuffer[] bufs, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            bufs[i].clear();
+        }
+        gatherLock.lock();
+        try {
+            fc.position(pageOffset(pgno));
+            long remain = (long) n * PAGE_SIZE;
+            while (remain > 0) {
+                remain -= fc.write(bufs, 0, n);
+                writeCalls.incrementAndGet();
+            }
+        } finally {
+            gatherLock.unlock();
+        }
+        pagesWritten.addAndGet(n);
+    }
+
+    /**
+     * 将已写入的页面持久化到磁盘
+     */
+    protected void forcePage(int pgno) throws IOException {
+        fc.force(false);
+    }
+
+    /**
+     * 将所有已写入的页面持久化到磁盘
+     */
+    protected void forceFile() throws IOException {
+        fc.force(false);
+    }
+
+    protected void truncateFile(long size) throws IOException {
+        file.setLength(size);
+    }
+
+    protected void closeFile() throws IOException {
+        fc.close();
+        file.close();
     }
 
     // endregion
 
     // region Utils
 
-    private static long pageOffset(int pgno) {
-        return (pgno - 1) * PAGE_SIZE;
+    protected static long pageOffset(int pgno) {
+        return (long) (pgno - 1) * PAGE_SIZE;
     }
 
     // endregion
@@ -137,7 +137,9 @@ public class BPlusTree {
             if(res.siblingUid == 0) {
                 break;
             } else {
+                // 提示页面缓存预读下一个叶子所在的页面及其之后的页面
                 leafUid = res.siblingUid;
+                dm.readAhead(leafUid);
             }
         }
         return uids;
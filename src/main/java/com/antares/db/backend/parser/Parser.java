@@ -84,6 +84,7 @@ public class Parser {
 
     /**
      * 处理 begin 语句(事务)
+     * begin [isolation level read committed|repeatable read] [read only] [async]
      */
     private static Begin parseBegin(Tokenizer tokenizer) throws Exception {
         String isolation = tokenizer.peek();
@@ -91,6 +92,9 @@ public class Parser {
         if ("".equals(isolation)) {
             return begin;
         }
+        if ("read".equals(isolation) || "async".equals(isolation)) {
+            return parseBeginOptions(tokenizer, begin);
+        }
 
         if (!"isolation".equals(isolation)) {
             throw Error.InvalidCommandException;
@@ -109,10 +113,7 @@ public class Parser {
             String tmp2 = tokenizer.peek();
             if ("committed".equals(tmp2)) {
                 tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
+                return parseBeginOptions(tokenizer, begin);
             } else {
                 throw Error.InvalidCommandException;
             }
@@ -122,10 +123,7 @@ public class Parser {
             if ("read".equals(tmp2)) {
                 begin.isRepeatableRead = true;
                 tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
+                return parseBeginOptions(tokenizer, begin);
             } else {
                 throw Error.InvalidCommandException;
             }
@@ -134,6 +132,28 @@ public class Parser {
         }
     }
 
+    /**
+     * begin语句末尾可选的read only和async
+     */
+    private static Begin parseBeginOptions(Tokenizer tokenizer, Begin begin) throws Exception {
+        if ("read".equals(tokenizer.peek())) {
+            tokenizer.pop();
+            if (!"only".equals(tokenizer.peek())) {
+                throw Error.InvalidCommandException;
+            }
+            begin.isReadOnly = true;
+            tokenizer.pop();
+        }
+        if ("async".equals(tokenizer.peek())) {
+            begin.isAsync = true;
+            tokenizer.pop();
+        }
+        if (!"".equals(tokenizer.peek())) {
+            throw Error.InvalidCommandException;
+        }
+        return begin;
+    }
+
     private static Commit parseCommit(Tokenizer tokenizer) throws Exception {
         if (!"".equals(tokenizer.peek())) {
             throw Error.InvalidCommandException;
@@ -453,8 +473,14 @@ public class Parser {
 
     private static Show parseShow(Tokenizer tokenizer) throws Exception {
         String tmp = tokenizer.peek();
+        Show show = new Show();
         if ("".equals(tmp)) {
-            return new Show();
+            return show;
+        }
+        if ("log".equals(tmp)) {
+            tokenizer.pop();
+            show.log = true;
+            return show;
         }
         throw Error.InvalidCommandException;
     }
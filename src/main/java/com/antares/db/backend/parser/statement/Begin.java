@@ -2,4 +2,6 @@ package com.antares.db.backend.parser.statement;
 
 public class Begin {
     public boolean isRepeatableRead;
+    public boolean isAsync; // 异步提交，提交时不等待日志持久化
+    public boolean isReadOnly; // 只读事务，不分配xid
 }
@@ -1,5 +1,6 @@
 package com.antares.db.backend.parser.statement;
 
 public class Show {
-    
+    // show log：显示日志段和检查点位置
+    public boolean log;
 }
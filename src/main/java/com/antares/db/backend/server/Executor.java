@@ -12,17 +12,19 @@ import com.antares.db.backend.parser.statement.Show;
 import com.antares.db.backend.parser.statement.Update;
 import com.antares.db.backend.tbm.BeginRes;
 import com.antares.db.backend.tbm.TableManager;
+import com.antares.db.backend.vm.Transaction;
 import com.antares.db.common.Error;
 
 /**
  * Executor负责执行SQL语句
  */
 public class Executor {
-    private long xid;
+    // 当前事务，直接持有事务对象，VM不必每次按xid查找
+    private Transaction t;
     TableManager tbm;
 
     public Executor(TableManager tbm) {
-        this.xid = 0;
+        this.t = null;
         this.tbm = tbm;
     }
 
@@ -30,25 +32,25 @@ public class Executor {
         System.out.println("Execute: " + new String(sql));
         Object stat = Parser.Parse(sql);
         if (Begin.class.isInstance(stat)) {
-            if (xid != 0) {
+            if (t != null) {
                 throw Error.NestedTransactionException;
             }
             BeginRes r = tbm.begin((Begin) stat);
-            xid = r.xid;
+            t = r.t;
             return r.result;
         } else if (Commit.class.isInstance(stat)) {
-            if (xid == 0) {
+            if (t == null) {
                 throw Error.NoTransactionException;
             }
-            byte[] result = tbm.commit(xid);
-            xid = 0;
+            byte[] result = tbm.commit(t);
+            t = null;
             return result;
         } else if (Abort.class.isInstance(stat)) {
-            if (xid == 0) {
+            if (t == null) {
                 throw Error.NoTransactionException;
             }
-            byte[] result = tbm.abort(xid);
-            xid = 0;
+            byte[] result = tbm.abort(t);
+            t = null;
             return result;
         } else {
             return execute2(stat);
@@ -58,26 +60,29 @@ public class Executor {
     private byte[] execute2(Object stat) throws Exception {
         boolean tmpTransaction = false;
         Exception e = null;
-        if (xid == 0) {
+        if (t == null) {
             tmpTransaction = true;
-            BeginRes r = tbm.begin(new Begin());
-            xid = r.xid;
+            // 自动提交的查询语句只读，不需要分配xid
+            Begin begin = new Begin();
+            begin.isReadOnly = Select.class.isInstance(stat) || Show.class.isInstance(stat);
+            BeginRes r = tbm.begin(begin);
+            t = r.t;
         }
 
         try {
             byte[] res = null;
             if (Show.class.isInstance(stat)) {
-                res = tbm.show(xid);
+                res = ((Show) stat).log ? tbm.showLog() : tbm.show(t);
             } else if (Create.class.isInstance(stat)) {
-                res = tbm.create(xid, (Create) stat);
+                res = tbm.create(t, (Create) stat);
             } else if (Select.class.isInstance(stat)) {
-                res = tbm.read(xid, (Select) stat);
+                res = tbm.read(t, (Select) stat);
             } else if (Insert.class.isInstance(stat)) {
-                res = tbm.insert(xid, (Insert) stat);
+                res = tbm.insert(t, (Insert) stat);
             } else if (Delete.class.isInstance(stat)) {
-                res = tbm.delete(xid, (Delete) stat);
+                res = tbm.delete(t, (Delete) stat);
             } else if (Update.class.isInstance(stat)) {
-                res = tbm.update(xid, (Update) stat);
+                res = tbm.update(t, (Update) stat);
             }
             return res;
         } catch (Exception e1) {
@@ -86,19 +91,19 @@ public class Executor {
         } finally {
             if (tmpTransaction) {
                 if (e != null) {
-                    tbm.abort(xid);
+                    tbm.abort(t);
                 } else {
-                    tbm.commit(xid);
+                    tbm.commit(t);
                 }
-                xid = 0;
+                t = null;
             }
         }
     }
 
     public void close() {
-        if (xid != 0) {
-            System.out.println("Abnormal Abort: " + xid);
-            tbm.abort(xid);
+        if (t != null) {
+            System.out.println("Abnormal Abort: " + t.xid);
+            tbm.abort(t);
         }
     }
 }
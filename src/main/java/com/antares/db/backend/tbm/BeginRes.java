@@ -1,9 +1,11 @@
 package com.antares.db.backend.tbm;
 
+import com.antares.db.backend.vm.Transaction;
+
 /**
  * 事务的执行结果
  */
 public class BeginRes {
-    public long xid;
+    public Transaction t;
     public byte[] result;
 }
@@ -9,6 +9,7 @@ import com.antares.db.backend.tm.TransactionManagerImpl;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.ParseStringRes;
 import com.antares.db.backend.utils.Parser;
+import com.antares.db.backend.vm.Transaction;
 import com.antares.db.common.Error;
 import com.google.common.primitives.Bytes;
 
@@ -54,7 +55,7 @@ public class Field {
         return new Field(uid, tb).parseSelf(raw);
     }
 
-    public static Field createField(Table tb, long xid, String fieldName, String fieldType, boolean indexed)
+    public static Field createField(Table tb, Transaction t, String fieldName, String fieldType, boolean indexed)
             throws Exception {
         typeCheck(fieldType);
         Field f = new Field(tb, fieldName, fieldType, 0);
@@ -65,7 +66,7 @@ public class Field {
             f.index = index;
             f.bt = bt;
         }
-        f.persistSelf(xid);
+        f.persistSelf(t);
         return f;
     }
 
@@ -172,11 +173,11 @@ public class Field {
     /**
      * 持久化字段
      */
-    private void persistSelf(long xid) throws Exception {
+    private void persistSelf(Transaction t) throws Exception {
         byte[] nameRaw = Parser.string2Byte(fieldName);
         byte[] typeRaw = Parser.string2Byte(fieldType);
         byte[] indexRaw = Parser.long2Byte(index);
-        this.uid = ((TableManagerImpl) tb.tbm).vm.insert(xid, Bytes.concat(nameRaw, typeRaw, indexRaw));
+        this.uid = ((TableManagerImpl) tb.tbm).vm.insert(t, Bytes.concat(nameRaw, typeRaw, indexRaw));
     }
 
     // region utils
@@ -17,6 +17,7 @@ import com.antares.db.backend.tm.TransactionManagerImpl;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.ParseStringRes;
 import com.antares.db.backend.utils.Parser;
+import com.antares.db.backend.vm.Transaction;
 import com.antares.db.common.Error;
 import com.google.common.primitives.Bytes;
 
@@ -58,7 +59,7 @@ public class Table {
         return tb.parseSelf(raw);
     }
 
-    public static Table createTable(TableManager tbm, long nextUid, long xid, Create create) throws Exception {
+    public static Table createTable(TableManager tbm, long nextUid, Transaction t, Create create) throws Exception {
         Table tb = new Table(tbm, create.tableName, nextUid);
         for (int i = 0; i < create.fieldName.length; i++) {
             String fieldName = create.fieldName[i];
@@ -70,20 +71,20 @@ public class Table {
                     break;
                 }
             }
-            tb.fields.add(Field.createField(tb, xid, fieldName, fieldType, indexed));
+            tb.fields.add(Field.createField(tb, t, fieldName, fieldType, indexed));
         }
 
-        return tb.persistSelf(xid);
+        return tb.persistSelf(t);
     }
 
     /**
      * 插入一条记录
      */
-    public void insert(long xid, Insert insert) throws Exception {
+    public void insert(Transaction t, Insert insert) throws Exception {
         // 转换为字段-值映射
         Map<String, Object> entry = string2Entry(insert.values);
         byte[] raw = entry2Raw(entry);
-        long uid = ((TableManagerImpl) tbm).vm.insert(xid, raw);
+        long uid = ((TableManagerImpl) tbm).vm.insert(t, raw);
         for (Field f : fields) {
             if (f.isIndexed()) {
                 f.insert(entry.get(f.fieldName), uid);
@@ -94,11 +95,11 @@ public class Table {
     /**
      * 读取记录
      */
-    public String read(long xid, Select read) throws Exception {
+    public String read(Transaction t, Select read) throws Exception {
         List<Long> uids = parseWhere(read.where);
         StringBuilder sb = new StringBuilder();
         for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
+            byte[] raw = ((TableManagerImpl) tbm).vm.read(t, uid);
             if (raw == null) {
                 continue;
             }
@@ -111,7 +112,7 @@ public class Table {
     /**
      * 更新记录(只支持单字段更新)
      */
-    public int update(long xid, Update update) throws Exception {
+    public int update(Transaction t, Update update) throws Exception {
         // 满足条件的记录uid
         List<Long> uids = parseWhere(update.where);
         Field fd = null;
@@ -128,18 +129,18 @@ public class Table {
         Object value = fd.string2Value(update.value);
         int count = 0;
         for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
+            byte[] raw = ((TableManagerImpl) tbm).vm.read(t, uid);
             if (raw == null) {
                 continue;
             }
             // 直接删除
-            ((TableManagerImpl) tbm).vm.delete(xid, uid);
+            ((TableManagerImpl) tbm).vm.delete(t, uid);
 
             // 更新值，重新插入
             Map<String, Object> entry = parseEntry(raw);
             entry.put(update.fieldName, value);
             raw = entry2Raw(entry);
-            long uuid = ((TableManagerImpl) tbm).vm.insert(xid, raw);
+            long uuid = ((TableManagerImpl) tbm).vm.insert(t, raw);
             count++;
 
             // TODO: 更新索引(为什么是直接插入)
@@ -155,12 +156,12 @@ public class Table {
     /**
      * 删除记录
      */
-    public int delete(long xid, Delete delete) throws Exception {
+    public int delete(Transaction t, Delete delete) throws Exception {
         // 满足条件的记录uid
         List<Long> uids = parseWhere(delete.where);
         int count = 0;
         for (Long uid : uids) {
-            if(((TableManagerImpl) tbm).vm.delete(xid, uid)) {
+            if(((TableManagerImpl) tbm).vm.delete(t, uid)) {
                 count++;
             }
         }
@@ -184,14 +185,14 @@ public class Table {
         return this;
     }
 
-    private Table persistSelf(long xid) throws Exception {
+    private Table persistSelf(Transaction t) throws Exception {
         byte[] nameRaw = Parser.string2Byte(name);
         byte[] nextRaw = Parser.long2Byte(nextUid);
         byte[] fieldRaw = new byte[0];
         for (Field f : fields) {
             fieldRaw = Bytes.concat(fieldRaw, Parser.long2Byte(f.uid));
         }
-        this.uid = ((TableManagerImpl) tbm).vm.insert(xid, Bytes.concat(nameRaw, nextRaw, fieldRaw));
+        this.uid = ((TableManagerImpl) tbm).vm.insert(t, Bytes.concat(nameRaw, nextRaw, fieldRaw));
         return this;
     }
 
@@ -8,32 +8,38 @@ import com.antares.db.backend.parser.statement.Insert;
 import com.antares.db.backend.parser.statement.Select;
 import com.antares.db.backend.parser.statement.Update;
 import com.antares.db.backend.utils.Parser;
+import com.antares.db.backend.vm.Transaction;
 import com.antares.db.backend.vm.VersionManager;
 
 public interface TableManager {
     /**
-     * 开始一个事务，返回事务的xid
+     * 开始一个事务，返回事务对象
      */
     BeginRes begin(Begin begin);
 
-    byte[] commit(long xid) throws Exception;
+    byte[] commit(Transaction t) throws Exception;
 
-    byte[] abort(long xid);
+    byte[] abort(Transaction t);
 
     /**
      * 显示所有表结构
      */
-    byte[] show(long xid);
+    byte[] show(Transaction t);
 
-    byte[] create(long xid, Create create) throws Exception;
+    /**
+     * 显示日志段和检查点位置
+     */
+    byte[] showLog();
+
+    byte[] create(Transaction t, Create create) throws Exception;
 
-    byte[] insert(long xid, Insert insert) throws Exception;
+    byte[] insert(Transaction t, Insert insert) throws Exception;
 
-    byte[] read(long xid, Select select) throws Exception;
+    byte[] read(Transaction t, Select select) throws Exception;
 
-    byte[] update(long xid, Update update) throws Exception;
+    byte[] update(Transaction t, Update update) throws Exception;
 
-    byte[] delete(long xid, Delete delete) throws Exception;
+    byte[] delete(Transaction t, Delete delete) throws Exception;
 
     public static TableManagerImpl create(String path, VersionManager vm, DataManager dm) {
         Booter booter = Booter.create(path);
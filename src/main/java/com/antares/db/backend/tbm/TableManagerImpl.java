@@ -15,6 +15,7 @@ import com.antares.db.backend.parser.statement.Insert;
 import com.antares.db.backend.parser.statement.Select;
 import com.antares.db.backend.parser.statement.Update;
 import com.antares.db.backend.utils.Parser;
+import com.antares.db.backend.vm.Transaction;
 import com.antares.db.backend.vm.VersionManager;
 import com.antares.db.common.Error;
 
@@ -51,26 +52,26 @@ public class TableManagerImpl implements TableManager {
     }
 
     /**
-     * 开始一个事务，返回事务的xid
+     * 开始一个事务，返回事务对象
      */
     @Override
     public BeginRes begin(Begin begin) {
         BeginRes res = new BeginRes();
         int level = begin.isRepeatableRead ? 1 : 0;
-        res.xid = vm.begin(level);
+        res.t = begin.isReadOnly ? vm.beginReadOnly(level) : vm.begin(level, begin.isAsync);
         res.result = "begin".getBytes();
         return res;
     }
 
     @Override
-    public byte[] commit(long xid) throws Exception {
-        vm.commit(xid);
+    public byte[] commit(Transaction t) throws Exception {
+        vm.commit(t);
         return "commit".getBytes();
     }
 
     @Override
-    public byte[] abort(long xid) {
-        vm.abort(xid);
+    public byte[] abort(Transaction t) {
+        vm.abort(t);
         return "abort".getBytes();
     }
 
@@ -78,18 +79,18 @@ public class TableManagerImpl implements TableManager {
      * 显示所有表结构
      */
     @Override
-    public byte[] show(long xid) {
+    public byte[] show(Transaction t) {
         lock.lock();
         try {
             StringBuilder sb = new StringBuilder();
             for (Table tb : tableCache.values()) {
                 sb.append(tb.toString()).append("\n");
             }
-            List<Table> t = xidTableCache.get(xid);
-            if (t == null) {
+            List<Table> tables = xidTableCache.get(t.xid);
+            if (tables == null) {
                 return "\n".getBytes();
             }
-            for (Table tb : t) {
+            for (Table tb : tables) {
                 sb.append(tb.toString()).append("\n");
             }
             return sb.toString().getBytes();
@@ -98,24 +99,33 @@ public class TableManagerImpl implements TableManager {
         }
     }
 
+    /**
+     * 显示日志段和检查点位置
+     */
+    @Override
+    public byte[] showLog() {
+        return (dm.walStatus() + "\n").getBytes();
+    }
+
     /**
      * 创建表
      */
     @Override
-    public byte[] create(long xid, Create create) throws Exception {
+    public byte[] create(Transaction t, Create create) throws Exception {
         lock.lock();
         try {
             if (tableCache.containsKey(create.tableName)) {
                 throw Error.DuplicatedTableException;
             }
-            Table table = Table.createTable(this, firstTableUid(), xid, create);
-            // 更新文件中记录的第一个表的uid
+            Table table = Table.createTable(this, firstTableUid(), t, create);
+            // 更新文件中记录的第一个表的uid，Booter引用的表必须已在日志中持久化
+            dm.flushLog();
             updateFirstTableUid(table.uid);
             tableCache.put(create.tableName, table);
-            if (!xidTableCache.containsKey(xid)) {
-                xidTableCache.put(xid, new ArrayList<>());
+            if (!xidTableCache.containsKey(t.xid)) {
+                xidTableCache.put(t.xid, new ArrayList<>());
             }
-            xidTableCache.get(xid).add(table);
+            xidTableCache.get(t.xid).add(table);
             return ("create " + create.tableName).getBytes();
         } finally {
             lock.unlock();
@@ -123,49 +133,49 @@ public class TableManagerImpl implements TableManager {
     }
 
     @Override
-    public byte[] insert(long xid, Insert insert) throws Exception {
+    public byte[] insert(Transaction t, Insert insert) throws Exception {
         lock.lock();
         Table table = tableCache.get(insert.tableName);
         lock.unlock();
         if (table == null) {
             throw Error.TableNotFoundException;
         }
-        table.insert(xid, insert);
+        table.insert(t, insert);
         return "insert".getBytes();
     }
 
     @Override
-    public byte[] read(long xid, Select read) throws Exception {
+    public byte[] read(Transaction t, Select read) throws Exception {
         lock.lock();
         Table table = tableCache.get(read.tableName);
         lock.unlock();
         if (table == null) {
             throw Error.TableNotFoundException;
         }
-        return table.read(xid, read).getBytes();
+        return table.read(t, read).getBytes();
     }
 
     @Override
-    public byte[] update(long xid, Update update) throws Exception {
+    public byte[] update(Transaction t, Update update) throws Exception {
         lock.lock();
         Table table = tableCache.get(update.tableName);
         lock.unlock();
         if (table == null) {
             throw Error.TableNotFoundException;
         }
-        int count = table.update(xid, update);
+        int count = table.update(t, update);
         return ("update " + count).getBytes();
     }
 
     @Override
-    public byte[] delete(long xid, Delete delete) throws Exception {
+    public byte[] delete(Transaction t, Delete delete) throws Exception {
         lock.lock();
         Table table = tableCache.get(delete.tableName);
         lock.unlock();
         if (table == null) {
             throw Error.TableNotFoundException;
         }
-        int count = table.delete(xid, delete);
+        int count = table.delete(t, delete);
         return ("delete " + count).getBytes();
     }
 
@@ -0,0 +1,97 @@
+package com.antares.db.backend.tm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内存中的事务状态表，每个事务占2bit，一个long存放32个事务
+ * 按页分配，每页覆盖PAGE_XIDS个事务，页面数组只在扩容时整体替换，
+ * 读状态只是两次数组访问，修改状态是对所在long的一次CAS
+ */
+class StatusTable {
+    private static final int BITS_PER_XID = 2;
+    private static final int XIDS_PER_WORD = Long.SIZE / BITS_PER_XID;
+    private static final long STATUS_MASK = (1L << BITS_PER_XID) - 1;
+
+    // 每页的事务数，64K个事务占16KB
+    static final int PAGE_SHIFT = 16;
+    static final int PAGE_XIDS = 1 << PAGE_SHIFT;
+    private static final int PAGE_WORDS = PAGE_XIDS / XIDS_PER_WORD;
+
+    private volatile AtomicLongArray[] pages;
+    private Lock growLock;
+
+    StatusTable() {
+        this.pages = new AtomicLongArray[0];
+        this.growLock = new ReentrantLock();
+    }
+
+    /**
+     * 读取xid的状态，超出已分配页面的事务返回0(活跃)
+     */
+    byte get(long xid) {
+        long idx = xid - 1;
+        AtomicLongArray[] ps = pages;
+        int page = (int) (idx >>> PAGE_SHIFT);
+        if (page >= ps.length) {
+            return 0;
+        }
+        int i = (int) (idx & (PAGE_XIDS - 1));
+        long word = ps[page].get(i / XIDS_PER_WORD);
+        return (byte) ((word >>> shift(i)) & STATUS_MASK);
+    }
+
+    /**
+     * 设置xid的状态，返回xid所在的页号
+     */
+    int set(long xid, byte status) {
+        long idx = xid - 1;
+        int page = (int) (idx >>> PAGE_SHIFT);
+        AtomicLongArray p = page(page);
+        int i = (int) (idx & (PAGE_XIDS - 1));
+        int w = i / XIDS_PER_WORD;
+        int shift = shift(i);
+        while (true) {
+            long old = p.get(w);
+            long word = (old & ~(STATUS_MASK << shift)) | ((long) status << shift);
+            if (p.compareAndSet(w, old, word)) {
+                return page;
+            }
+        }
+    }
+
+    /**
+     * 第page页覆盖的第一个xid
+     */
+    static long firstXid(int page) {
+        return ((long) page << PAGE_SHIFT) + 1;
+    }
+
+    private static int shift(int i) {
+        return (i % XIDS_PER_WORD) * BITS_PER_XID;
+    }
+
+    private AtomicLongArray page(int page) {
+        AtomicLongArray[] ps = pages;
+        if (page < ps.length) {
+            return ps[page];
+        }
+        growLock.lock();
+        try {
+            ps = pages;
+            if (page >= ps.length) {
+                AtomicLongArray[] grown = Arrays.copyOf(ps, Math.max(page + 1, ps.length * 2));
+                for (int i = ps.length; i < grown.length; i++) {
+                    grown[i] = new AtomicLongArray(PAGE_WORDS);
+                }
+                pages = grown;
+                ps = grown;
+            }
+            return ps[page];
+        } finally {
+            growLock.unlock();
+        }
+    }
+}
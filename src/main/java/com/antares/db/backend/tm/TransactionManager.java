@@ -11,14 +11,17 @@ import com.antares.db.common.Error;
 /*
  * 是无辜那里其TransactionManager维护一个XID格式的文件，用来记录各个事务的状态
  * 事务状态包括：活跃、已提交、已回滚
+ * 事务状态常驻内存，查询状态不访问文件
  */
 public interface TransactionManager {
     long begin();   // 开始事务，返回事务ID
-    void commit(long xid); // 提交事务
+    void commitAsync(long xid); // 提交事务，状态由flush批量持久化
     void abort(long xid);  // 回滚事务
     boolean isActive(long xid); // 检查事务是否活跃
     boolean isCommitted(long xid); // 检查事务是否已提交
     boolean isAborted(long xid);  // 检查事务是否已回滚
+    long lastXid(); // 已分配的最大事务ID，只读内存
+    void flush(); // 持久化批量写入的事务状态
     void close(); // 关闭事务管理器
 
     public static TransactionManagerImpl create(String path) {
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.antares.db.backend.utils.Panic;
@@ -27,21 +30,40 @@ public class TransactionManagerImpl implements TransactionManager {
 
     static final String XID_SUFFIX = ".xid";
 
+    // 文件头一次预留的xid个数
+    static final long XID_RESERVE = 1024;
+
     private RandomAccessFile file;
     private FileChannel fc;
-    private long xidCounter = 0;
-    private ReentrantLock counterLock;
+    // 已分配的最大xid，分配不加锁
+    private AtomicLong xidCounter;
+    // 文件头中已持久化的预留上限，不超过它的xid可以直接分配
+    private volatile long reserved;
+    private ReentrantLock reserveLock;
+
+    // 内存中的事务状态表是读状态的唯一来源，XID文件只在打开时读入
+    private StatusTable table;
+    // 状态已修改、尚未写入XID文件的页
+    private Set<Integer> dirtyPages;
+    private ReentrantLock flushLock;
+    private boolean closed; // 由flushLock保护
 
     TransactionManagerImpl(RandomAccessFile raf, FileChannel fc) {
         this.file = raf;
         this.fc = fc;
-        this.counterLock = new ReentrantLock();
+        this.xidCounter = new AtomicLong();
+        this.reserveLock = new ReentrantLock();
+        this.table = new StatusTable();
+        this.dirtyPages = ConcurrentHashMap.newKeySet();
+        this.flushLock = new ReentrantLock();
         checkXIDCounter();
+        loadStatus();
     }
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_FILE_HEADER中的xidcounter，根据它计算文件的理论长度，对比实际长度
+     * 文件头记录的是xid的预留上限，运行中的文件只包含已批量写入的状态，长度不超过预留上限对应的长度
+     * 崩溃后从预留上限继续分配，之前预留而未使用的xid被跳过；正常关闭时文件头改写为实际分配的最大xid
      */
     private void checkXIDCounter() {
         long fileLen = 0;
@@ -63,13 +85,15 @@ public class TransactionManagerImpl implements TransactionManager {
             Panic.panic(e);
         }
 
-        // 读取文件头中的xidCounter
-        this.xidCounter = Parser.parseLong(buf.array());
+        // 读取文件头中的预留上限
+        long limit = Parser.parseLong(buf.array());
         // getXidPosition计算的是开始位置，所以要加1计算结束位置
-        long end = getXidPosition(this.xidCounter + 1);
-        if (end != fileLen) {
+        long end = getXidPosition(limit + 1);
+        if (limit < 0 || end < fileLen) {
             Panic.panic(Error.BadXIDFileException);
         }
+        this.xidCounter.set(limit);
+        this.reserved = limit;
     }
 
     /**
@@ -79,54 +103,68 @@ public class TransactionManagerImpl implements TransactionManager {
         return LEN_XID_HEADER_LENGTH + (xid - 1) * XID_FIELD_SIZE;
     }
 
+    /**
+     * 把XID文件中所有事务的状态读入状态表
+     */
+    private void loadStatus() {
+        ByteBuffer buf = null;
+        try {
+            buf = ByteBuffer.allocate((int) (file.length() - LEN_XID_HEADER_LENGTH));
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, getXidPosition(1) + buf.position()) < 0) {
+                    Panic.panic(Error.BadXIDFileException);
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        byte[] status = buf.array();
+        for (long xid = 1; xid <= status.length / XID_FIELD_SIZE; xid++) {
+            byte st = status[(int) (getXidPosition(xid) - LEN_XID_HEADER_LENGTH)];
+            if (st != FIELD_TRAN_ACTIVE) {
+                table.set(xid, st);
+            }
+        }
+    }
+
     /*
      * 开始一个新的事务，返回xid
+     * 新xid在状态表中默认就是活跃状态，不写文件；只有用完预留范围时才持久化一次文件头
      */
     @Override
     public long begin() {
-        counterLock.lock();
-        try {
-            long xid = xidCounter+1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
-        } finally {
-            counterLock.unlock();
+        long xid = xidCounter.incrementAndGet();
+        if (xid > reserved) {
+            reserve(xid);
         }
+        return xid;
     }
 
     /*
-     * 更新xid事务的状态为status
+     * 把预留上限推进到xid之后XID_RESERVE个，持久化后xid才能被使用
      */
-    private void updateXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        byte[] tmp = new byte[XID_FIELD_SIZE];
-        tmp[0] = status;
-        ByteBuffer buf = ByteBuffer.wrap(tmp);
-        try {
-            fc.position(offset);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-
+    private void reserve(long xid) {
+        reserveLock.lock();
         try {
-            // 将数据强制写入磁盘
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
+            if (xid > reserved) {
+                long limit = xid + XID_RESERVE;
+                writeHeader(limit);
+                reserved = limit;
+            }
+        } finally {
+            reserveLock.unlock();
         }
     }
 
     /*
-     * 增加xidCounter，并更新文件头
+     * 更新并持久化文件头
      */
-    private void incrXIDCounter() {
-        xidCounter++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
+    private void writeHeader(long limit) {
+        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(limit));
         try {
-            fc.position(0);
-            fc.write(buf);
+            while (buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
@@ -139,14 +177,21 @@ public class TransactionManagerImpl implements TransactionManager {
         }
     }
 
+    /*
+     * 只修改内存中的状态，由flush批量写入XID文件
+     * 事务提交的持久性由日志中的COMMIT日志保证，崩溃后恢复时据此重新标记
+     */
     @Override
-    public void commit(long xid) {
-        updateXID(xid, FIELD_TRAN_COMMITTED);
+    public void commitAsync(long xid) {
+        dirtyPages.add(table.set(xid, FIELD_TRAN_COMMITTED));
     }
 
+    /*
+     * 与commitAsync一样批量持久化，崩溃时丢失的回滚状态使事务看起来仍然活跃，恢复时其修改被撤销
+     */
     @Override
     public void abort(long xid) {
-        updateXID(xid, FIELD_TRAN_ABORTED);
+        dirtyPages.add(table.set(xid, FIELD_TRAN_ABORTED));
     }
 
     @Override
@@ -154,7 +199,7 @@ public class TransactionManagerImpl implements TransactionManager {
         if (xid == SUPER_XID) {
             return false;
         }
-        return checkXIDStatus(xid, FIELD_TRAN_ACTIVE);
+        return table.get(xid) == FIELD_TRAN_ACTIVE;
     }
 
     @Override
@@ -162,7 +207,7 @@ public class TransactionManagerImpl implements TransactionManager {
         if (xid == SUPER_XID) {
             return true;
         }
-        return checkXIDStatus(xid, FIELD_TRAN_COMMITTED);
+        return table.get(xid) == FIELD_TRAN_COMMITTED;
     }
 
     @Override
@@ -170,31 +215,68 @@ public class TransactionManagerImpl implements TransactionManager {
         if (xid == SUPER_XID) {
             return false;
         }
-        return checkXIDStatus(xid, FIELD_TRAN_ABORTED);
+        return table.get(xid) == FIELD_TRAN_ABORTED;
+    }
+
+    @Override
+    public long lastXid() {
+        return xidCounter.get();
     }
 
     /*
-     * 检查XID事务是否处于status状态
+     * 把有状态修改的页整页写入XID文件，最后只force一次
      */
-    private boolean checkXIDStatus(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.allocate(XID_FIELD_SIZE);
+    @Override
+    public void flush() {
+        flushLock.lock();
         try {
-            fc.position(offset);
-            fc.read(buf);
+            if (closed || dirtyPages.isEmpty()) {
+                return;
+            }
+            // 正在等待预留的xid可能超出文件头中的上限，它们的状态留到下一次写入
+            long counter = Math.min(xidCounter.get(), reserved);
+            for (int page : dirtyPages) {
+                // 先移出再读状态，之后的修改会重新标记该页
+                dirtyPages.remove(page);
+                long first = StatusTable.firstXid(page);
+                long last = Math.min(first + StatusTable.PAGE_XIDS - 1, counter);
+                if (last < first) {
+                    continue;
+                }
+                byte[] raw = new byte[(int) (last - first + 1) * XID_FIELD_SIZE];
+                for (long xid = first; xid <= last; xid++) {
+                    raw[(int) (xid - first) * XID_FIELD_SIZE] = table.get(xid);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(raw);
+                while (buf.hasRemaining()) {
+                    fc.write(buf, getXidPosition(first) + buf.position());
+                }
+            }
+            fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            flushLock.unlock();
         }
-        return buf.array()[0] == status;
     }
 
     @Override
     public void close() {
+        flush();
+        flushLock.lock();
         try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 文件头改写为实际分配的最大xid，未使用的预留部分不再保留
+            writeHeader(xidCounter.get());
             fc.close();
             file.close();
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            flushLock.unlock();
         }
     }
 
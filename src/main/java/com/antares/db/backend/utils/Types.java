@@ -12,4 +12,11 @@ public class Types {
         long u1 = (long) offset;
         return u0 << 32 | u1;
     }
+
+    /**
+     * 从uid中取出页号
+     */
+    public static int uidToPgno(long uid) {
+        return (int) (uid >>> 32);
+    }
 }
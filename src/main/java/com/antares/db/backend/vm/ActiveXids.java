@@ -0,0 +1,89 @@
+package com.antares.db.backend.vm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 活跃事务的登记表，只追加，为快照提供数据
+ *
+ * xids按开启顺序追加，xid单调递增所以天然有序；ends[i]记录xids[i]结束时的序号，0表示还未结束。
+ * 每开启或结束一个事务，序号seq加1，快照只记下数组、范围和当时的序号，
+ * 之后结束的事务写入的序号都比它大，因此开启和结束事务都不复制数组。
+ * 数组写满时只把未结束的xid搬到新数组，旧快照继续引用旧数组
+ *
+ * 修改由VersionManagerImpl的lock保护，快照的读取不加锁
+ */
+class ActiveXids {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] xids;
+    private AtomicLongArray ends;
+    private int head; // 第一个未结束的xid的下标
+    private int size;
+    private long seq;
+    private long xmax;
+
+    ActiveXids(long lastXid) {
+        this.xids = new long[INITIAL_CAPACITY];
+        this.ends = new AtomicLongArray(INITIAL_CAPACITY);
+        this.xmax = lastXid + 1;
+    }
+
+    /**
+     * 当前的快照
+     */
+    Snapshot snapshot() {
+        return new Snapshot(xids, ends, head, size, seq, xmax);
+    }
+
+    /**
+     * 登记开启的事务xid，返回开启之后的快照
+     */
+    Snapshot begin(long xid) {
+        if (size == xids.length) {
+            compact();
+        }
+        xids[size++] = xid;
+        xmax = xid + 1;
+        seq++;
+        return snapshot();
+    }
+
+    /**
+     * 登记结束的事务xid，返回结束之后的快照
+     */
+    Snapshot end(long xid) {
+        int i = Arrays.binarySearch(xids, head, size, xid);
+        if (i >= 0 && ends.get(i) == 0) {
+            ends.set(i, ++seq);
+            while (head < size && ends.get(head) != 0) {
+                head++;
+            }
+        }
+        return snapshot();
+    }
+
+    /**
+     * 把未结束的xid搬到新数组，新数组至少空出一半，搬运的开销均摊到之后的begin上
+     */
+    private void compact() {
+        int running = 0;
+        for (int i = head; i < size; i++) {
+            if (ends.get(i) == 0) {
+                running++;
+            }
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, running * 2);
+        long[] nextXids = new long[capacity];
+        int n = 0;
+        for (int i = head; i < size; i++) {
+            if (ends.get(i) == 0) {
+                nextXids[n++] = xids[i];
+            }
+        }
+        xids = nextXids;
+        ends = new AtomicLongArray(capacity);
+        head = 0;
+        size = n;
+    }
+}
@@ -0,0 +1,58 @@
+package com.antares.db.backend.vm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 事务快照，不可变
+ *
+ * xmin：快照时最小的活跃xid，小于xmin的事务都已结束
+ * xmax：快照时还未分配的第一个xid，不小于xmax的事务都在快照之后开启
+ * xids[from, to)：快照时ActiveXids中登记的xid，升序排列，其中结束序号为0或大于seq的在快照时还活跃
+ *
+ * 快照只引用ActiveXids的数组，不复制
+ */
+public class Snapshot {
+    public final long xmin;
+    public final long xmax;
+    private final long[] xids;
+    private final AtomicLongArray ends;
+    private final int from;
+    private final int to;
+    private final long seq;
+
+    Snapshot(long[] xids, AtomicLongArray ends, int from, int to, long seq, long xmax) {
+        this.xids = xids;
+        this.ends = ends;
+        this.from = from;
+        this.to = to;
+        this.seq = seq;
+        this.xmax = xmax;
+        this.xmin = from < to ? xids[from] : xmax;
+    }
+
+    /**
+     * 快照时xid是否还未结束(活跃或还未开启)，对快照的持有者不可见
+     */
+    public boolean isRunning(long xid) {
+        if (xid < xmin) {
+            return false;
+        }
+        if (xid >= xmax) {
+            return true;
+        }
+        int i = Arrays.binarySearch(xids, from, to, xid);
+        if (i < 0) {
+            return false;
+        }
+        long end = ends.get(i);
+        return end == 0 || end > seq;
+    }
+
+    /**
+     * 同一组活跃事务，以xid为上界，作为事务xid自己的快照
+     */
+    Snapshot until(long xid) {
+        return new Snapshot(xids, ends, from, to, seq, xid);
+    }
+}
@@ -1,44 +1,51 @@
 package com.antares.db.backend.vm;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import com.antares.db.backend.tm.TransactionManagerImpl;
-
 /**
  * 事务的抽象
  */
 public class Transaction {
     public long xid;
     public int level;
-    public Map<Long, Boolean> snapshot; // 事务快照，记录了在该事务开始时刻活跃的事务，TODO 为什么不用Set<Long>
+    public Snapshot snapshot; // 事务快照，记录了在该事务开始时刻活跃的事务，读已提交时为null
     public Exception err;
     public boolean autoAborted;
+    public boolean async; // 异步提交
+    public boolean readOnly; // 只读事务，xid为负数，不在TM中分配
 
     /**
      * 创建一个新的事务对象
      * @param xid
      * @param level 事务隔离级别
-     * @param active 当前活跃事务
+     * @param published 开启xid之前发布的快照
+     * @param async 是否异步提交
      * @return
      */
-    public static Transaction newTransaction(long xid, int level, Map<Long, Transaction> active) {
+    public static Transaction newTransaction(long xid, int level, Snapshot published, boolean async) {
         Transaction t = new Transaction();
         t.xid = xid;
         t.level = level;
+        t.async = async;
         if(level != 0) {
-            t.snapshot = new HashMap<>();
-            for(Long x : active.keySet()) {
-                t.snapshot.put(x, true);
-            }
+            t.snapshot = published.until(xid);
         }
         return t;
     }
 
-    public boolean isInSnapshot(long xid) {
-        if(xid == TransactionManagerImpl.SUPER_XID) {
-            return false;
+    /**
+     * 创建一个只读事务对象
+     * @param xid 只读事务的标识，为负数
+     * @param level 事务隔离级别
+     * @param published 当前发布的快照
+     * @return
+     */
+    public static Transaction newReadOnlyTransaction(long xid, int level, Snapshot published) {
+        Transaction t = new Transaction();
+        t.xid = xid;
+        t.level = level;
+        t.readOnly = true;
+        if(level != 0) {
+            t.snapshot = published;
         }
-        return snapshot.containsKey(xid);
+        return t;
     }
 }
@@ -1,11 +1,31 @@
 package com.antares.db.backend.vm;
 
 public interface VersionManager {
+    /**
+     * 按xid查找活跃事务后读写，用于SUPER_XID等不持有事务对象的调用方
+     */
     byte[] read(long xid, long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
 
-    long begin(int level);
-    void commit(long xid) throws Exception;
-    void abort(long xid);
+    byte[] read(Transaction t, long uid) throws Exception;
+    long insert(Transaction t, byte[] data) throws Exception;
+    boolean delete(Transaction t, long uid) throws Exception;
+
+    /**
+     * 开启一个事务
+     *
+     * @param level 隔离级别，0为读已提交，1为可重复读
+     * @param async 是否异步提交，提交时不等待日志持久化
+     */
+    Transaction begin(int level, boolean async);
+
+    /**
+     * 开启一个只读事务，不在TM中分配xid，事务的xid为负数
+     *
+     * @param level 隔离级别，0为读已提交，1为可重复读
+     */
+    Transaction beginReadOnly(int level);
+    void commit(Transaction t) throws Exception;
+    void abort(Transaction t);
 }
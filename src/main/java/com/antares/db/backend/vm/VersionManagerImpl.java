@@ -1,7 +1,8 @@
 package com.antares.db.backend.vm;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -9,26 +10,43 @@ import com.antares.db.backend.common.AbstractCache;
 import com.antares.db.backend.dm.DataManager;
 import com.antares.db.backend.tm.TransactionManager;
 import com.antares.db.backend.tm.TransactionManagerImpl;
-import com.antares.db.backend.utils.Panic;
 import com.antares.db.common.Error;
 
 public class VersionManagerImpl extends AbstractCache<Entry> implements VersionManager {
 
     TransactionManager tm;
     DataManager dm;
-    Map<Long, Transaction> activeTransaction;
-    Lock lock;  //锁的是activeTransaction
+    Map<Long, Transaction> activeTransaction; // 并发的活跃事务表，查找不加锁
+    Lock lock;  //锁的是active和published，保证xid分配与快照发布的顺序一致
     LockTable lt;
+    // 所有事务都异步提交，由服务器启动参数设置
+    private volatile boolean asyncCommit;
+    // 活跃事务的登记表，在lock下随事务开启和结束追加
+    private ActiveXids active;
+    // 发布中的快照，在lock下随事务开启和结束替换，开启事务时直接引用
+    private volatile Snapshot published;
+    // 只读事务的标识，从-1开始递减，不占用TM中的xid
+    private AtomicLong readOnlyXid;
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
         super(0);
         this.tm = tm;
         this.dm = dm;
-        this.activeTransaction = new HashMap<>();
+        this.activeTransaction = new ConcurrentHashMap<>();
         activeTransaction.put(TransactionManagerImpl.SUPER_XID,
-                Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, 0, null));
+                Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, 0, null, false));
         this.lock = new ReentrantLock();
         this.lt = new LockTable();
+        this.active = new ActiveXids(tm.lastXid());
+        this.published = active.snapshot();
+        this.readOnlyXid = new AtomicLong();
+    }
+
+    /**
+     * 设置是否让所有事务都异步提交，为false时只有begin async开启的事务异步提交
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
     }
 
     // region VersionManager
@@ -36,43 +54,57 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      * 开启一个事务
      */
     @Override
-    public long begin(int level) {
+    public Transaction begin(int level, boolean async) {
         lock.lock();
         try {
             long xid = tm.begin();
-            Transaction t = Transaction.newTransaction(xid, level, activeTransaction);
+            Snapshot s = published;
+            Transaction t = Transaction.newTransaction(xid, level, s, async || asyncCommit);
             activeTransaction.put(xid, t);
-            return xid;
+            published = active.begin(xid);
+            return t;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 开启一个只读事务
+     * 
+     * 只读事务不写数据，也就不需要在XID文件中留下状态：
+     * 只在activeTransaction中登记，引用发布中的快照，不调用tm.begin
+     */
+    @Override
+    public Transaction beginReadOnly(int level) {
+        long xid = readOnlyXid.decrementAndGet();
+        Transaction t = Transaction.newReadOnlyTransaction(xid, level, published);
+        activeTransaction.put(xid, t);
+        return t;
+    }
+
     /**
      * 提交一个事务
      */
     @Override
-    public void commit(long xid) throws Exception {
-        lock.lock();
-        Transaction t = activeTransaction.get(xid);
-        lock.unlock();
+    public void commit(Transaction t) throws Exception {
+        if(t.err != null) {
+            throw t.err;
+        }
 
-        try {
-            if(t.err != null) {
-                throw t.err;
-            }
-        } catch(NullPointerException e) {
-            System.out.println(xid);
-            System.out.println(activeTransaction.keySet());
-            Panic.panic(e);
+        if(t.readOnly) {
+            activeTransaction.remove(t.xid);
+            return;
         }
 
+        // COMMIT日志要在释放锁之前写入，之后修改同一记录的事务的日志都在它之后
+        dm.commit(t.xid, t.async);
+        lt.remove(t.xid);
+
+        // 提交之后才从快照中移除，新快照不会看到一个"已结束"却还未提交的事务
+        activeTransaction.remove(t.xid);
         lock.lock();
-        activeTransaction.remove(xid);
+        published = active.end(t.xid);
         lock.unlock();
-
-        lt.remove(xid);
-        tm.commit(xid);
     }
 
     /**
@@ -82,31 +114,44 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      * TODO: 自动回滚(autoAborted=true)：在调用侧已经释放过，无需再次释放，delete()函数也并没释放呀
      */
     @Override
-    public void abort(long xid) {
-        internAbort(xid, false);
+    public void abort(Transaction t) {
+        internAbort(t, false);
     }
 
-    private void internAbort(long xid, boolean autoAborted) {
-        lock.lock();
-        Transaction t = activeTransaction.get(xid);
+    private void internAbort(Transaction t, boolean autoAborted) {
         if(!autoAborted) {
-            activeTransaction.remove(xid);
+            activeTransaction.remove(t.xid);
         }
-        lock.unlock();
 
-        if(t.autoAborted) {
+        if(t.autoAborted || t.readOnly) {
             return;
         }
-        lt.remove(xid);
-        tm.abort(xid);
+        // ABORT日志要在释放锁之前写入，之后修改同一记录的事务的日志都在它之后
+        dm.abort(t.xid);
+        lt.remove(t.xid);
+
+        lock.lock();
+        published = active.end(t.xid);
+        lock.unlock();
     }
 
     @Override
     public byte[] read(long xid, long uid) throws Exception {
-        lock.lock();
-        Transaction t = activeTransaction.get(xid);
-        lock.unlock();
+        return read(activeTransaction.get(xid), uid);
+    }
+
+    @Override
+    public long insert(long xid, byte[] data) throws Exception {
+        return insert(activeTransaction.get(xid), data);
+    }
 
+    @Override
+    public boolean delete(long xid, long uid) throws Exception {
+        return delete(activeTransaction.get(xid), uid);
+    }
+
+    @Override
+    public byte[] read(Transaction t, long uid) throws Exception {
         if(t.err != null) {
             throw t.err;
         }
@@ -134,26 +179,25 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     }
 
     @Override
-    public long insert(long xid, byte[] data) throws Exception {
-        lock.lock();
-        Transaction t = activeTransaction.get(xid);
-        lock.unlock();
-
+    public long insert(Transaction t, byte[] data) throws Exception {
         if(t.err != null) {
             throw t.err;
         }
-        byte[] raw = Entry.wrapEntryRaw(xid, data);
-        return dm.insert(xid, raw);
+        if(t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
+        }
+        byte[] raw = Entry.wrapEntryRaw(t.xid, data);
+        return dm.insert(t.xid, raw);
     }
 
     @Override
-    public boolean delete(long xid, long uid) throws Exception {
-        lock.lock();
-        Transaction t = activeTransaction.get(xid);
-        lock.unlock();
+    public boolean delete(Transaction t, long uid) throws Exception {
         if(t.err != null) {
             throw t.err;
         }
+        if(t.readOnly) {
+            throw Error.ReadOnlyTransactionException;
+        }
 
         Entry entry = null;
         try {
@@ -172,10 +216,10 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
             Lock l = null;
             try {
-                l = lt.add(xid, uid);
+                l = lt.add(t.xid, uid);
             } catch (Exception e) {
                 t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
+                internAbort(t, true);
                 t.autoAborted = true;
                 throw t.err;
             }
@@ -186,18 +230,18 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             }
 
             // 已经被当前事务删除过了
-            if(entry.getXmax() == xid) {
+            if(entry.getXmax() == t.xid) {
                 return false;
             }
 
             if(Visibility.isVersionSkip(tm, t, entry)) {
                 t.err = Error.ConcurrentUpdateException;
-                internAbort(xid, true);
+                internAbort(t, true);
                 t.autoAborted = true;
                 throw t.err;
             }
 
-            entry.setXmax(xid);
+            entry.setXmax(t.xid);
             return true;
         } finally {
             super.release(uid);
@@ -20,7 +20,7 @@ public class Visibility {
         if (t.level == 0) {
             return false;
         } else {
-            return tm.isCommitted(xmax) && (xmax > t.xid || t.isInSnapshot(xmax));
+            return tm.isCommitted(xmax) && t.snapshot.isRunning(xmax);
         }
     }
 
@@ -83,6 +83,9 @@ public class Visibility {
      * 1. 由xid创建且未删除
      * 2. 由一个已提交的事务创建，且这个事务<xid，且在xid开始时该事务已提交(不在active中)
      *   且未被删除，或被删除了，但这个事务还未提交 或 这个事务>xid 或 这个事务在xid开始时还未提交(在active中)
+     * 
+     * "<xid且不在active中"和"在active中或>xid"分别由快照的isRunning判断，
+     * 只读事务的快照上界是开始时已分配的最大xid+1
      * @param tm
      * @param t
      * @param e
@@ -96,12 +99,12 @@ public class Visibility {
             return true;
         }
 
-        if (tm.isCommitted(xmin) && xmin < xid && !t.isInSnapshot(xmin)) {
+        if (tm.isCommitted(xmin) && !t.snapshot.isRunning(xmin)) {
             if (xmax == 0) {
                 return true;
             }
             if (xmax != xid) {
-                if (!tm.isCommitted(xmax) || xmax > xid || t.isInSnapshot(xmax)) {
+                if (!tm.isCommitted(xmax) || t.snapshot.isRunning(xmax)) {
                     return true;
                 }
             }
@@ -20,6 +20,7 @@ public class Error {
     public static final Exception DeadlockException = new RuntimeException("Deadlock!");
     public static final Exception ConcurrentUpdateException = new RuntimeException("Concurrent update issue!");
     public static final Exception NullEntryException = new RuntimeException("Null entry!");
+    public static final Exception ReadOnlyTransactionException = new RuntimeException("Cannot write in a read-only transaction!");
 
     // tbm
     public static final Exception InvalidFieldException = new RuntimeException("Invalid field type!");
@@ -43,4 +44,7 @@ public class Error {
 
     // launcher
     public static final Exception InvalidMemException = new RuntimeException("Invalid memory!");
+    public static final Exception InvalidIOModeException = new RuntimeException("Invalid io mode!");
+    public static final Exception InvalidCachePolicyException = new RuntimeException("Invalid cache policy!");
+    public static final Exception InvalidCommitModeException = new RuntimeException("Invalid commit mode!");
 }
@@ -0,0 +1,77 @@
+package com.antares.db.backend.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * AbstractCache命中路径(get + release)的多线程吞吐
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *      -Dexec.args="-cp %classpath com.antares.db.backend.common.CacheBenchmark"
+ * 依次以1, 2, 4, ... 直至CPU核数的线程运行，对比各线程数下的总吞吐
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    @Param({ "4096" })
+    int keys;
+
+    AbstractCache<Long> cache;
+
+    @Setup
+    public void setup() throws Exception {
+        cache = new AbstractCache<Long>(keys) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {}
+        };
+        // 预热，保证所有key都驻留在缓存中
+        for (long i = 0; i < keys; i++) {
+            cache.get(i);
+            cache.release(i);
+        }
+    }
+
+    @Benchmark
+    public long hit() throws Exception {
+        long key = ThreadLocalRandom.current().nextInt(keys);
+        long res = cache.get(key);
+        cache.release(key);
+        return res;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            Options opt = new OptionsBuilder()
+                    .include(CacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
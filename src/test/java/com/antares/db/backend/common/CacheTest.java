@@ -1,8 +1,12 @@
 package com.antares.db.backend.common;
 
 import java.security.SecureRandom;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.junit.Test;
 
@@ -32,6 +36,143 @@ public class CacheTest {
         }
     }
 
+    @Test
+    public void testEviction() throws Exception {
+        MockCache c = new MockCache();
+        for(long i = 0; i < 50; i ++) {
+            c.get(i);
+            c.release(i);
+        }
+        assert c.evicts.get() == 0;
+
+        // 未被引用的资源仍驻留在缓存中
+        for(long i = 0; i < 50; i ++) {
+            assert c.get(i) == i;
+            c.release(i);
+        }
+        assert c.loads.get() == 50;
+
+        // 缓存已满，驱逐一个未被引用的资源，正被引用的资源0不会被驱逐
+        c.get(0L);
+        c.get(50L);
+        assert c.evicts.get() == 1;
+        assert c.loads.get() == 51;
+        c.get(0L);
+        assert c.loads.get() == 51;
+        c.release(0L);
+        c.release(0L);
+        c.release(50L);
+    }
+
+    @Test
+    public void testScanResistance() throws Exception {
+        // 扫描过后，LRU中的热点资源全部被挤出，2Q中的保留下来
+        assert hotReloadsAfterScan(EvictionPolicy.lru()) == 20;
+        assert hotReloadsAfterScan(EvictionPolicy.twoQueue()) == 0;
+    }
+
+    /**
+     * 直接驱动替换策略，模拟一个容量为100的缓存：
+     * 热点资源先被驱逐一次再重新加载(进入2Q的Am)，然后扫描大量只访问一次的资源，返回热点资源需要重新加载的个数
+     */
+    private int hotReloadsAfterScan(Supplier<EvictionPolicy> factory) {
+        EvictionPolicy policy = factory.get();
+        Set<Long> resident = new HashSet<>();
+        for (long i = 0; i < 120; i++) {
+            touch(policy, resident, i < 20 ? i : 100 + i);
+        }
+        for (long i = 0; i < 20; i++) {
+            touch(policy, resident, i);
+        }
+        for (long i = 1000; i < 2000; i++) {
+            touch(policy, resident, i);
+        }
+        int reloads = 0;
+        for (long i = 0; i < 20; i++) {
+            if (touch(policy, resident, i)) {
+                reloads++;
+            }
+        }
+        return reloads;
+    }
+
+    /**
+     * 访问一次key，未命中且已满时先驱逐策略选出的资源
+     *
+     * @return 是否需要加载
+     */
+    private boolean touch(EvictionPolicy policy, Set<Long> resident, long key) {
+        if (resident.contains(key)) {
+            policy.access(key);
+            return false;
+        }
+        if (resident.size() == 100) {
+            resident.remove(policy.victim(k -> true));
+        }
+        resident.add(key);
+        policy.admit(key);
+        return true;
+    }
+
+    @Test
+    public void testConcurrentMiss() throws Exception {
+        AtomicInteger loads = new AtomicInteger(0);
+        RuntimeException loadErr = new RuntimeException("load failed");
+        AbstractCache<Long> c = new AbstractCache<Long>(50) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(50);
+                if (key < 0) {
+                    throw loadErr;
+                }
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {}
+        };
+
+        // 并发未命中同一个key，只加载一次
+        int n = 10;
+        CountDownLatch done = new CountDownLatch(n);
+        AtomicInteger ok = new AtomicInteger(0);
+        AtomicInteger failed = new AtomicInteger(0);
+        for(int i = 0; i < n; i ++) {
+            new Thread(() -> {
+                try {
+                    if (c.get(1L) == 1L) {
+                        ok.incrementAndGet();
+                    }
+                    c.release(1L);
+                } catch (Exception e) {
+                    Panic.panic(e);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assert ok.get() == n;
+        assert loads.get() == 1;
+
+        // 加载失败时，异常传递给所有等待者
+        CountDownLatch done2 = new CountDownLatch(n);
+        for(int i = 0; i < n; i ++) {
+            new Thread(() -> {
+                try {
+                    c.get(-1L);
+                } catch (Exception e) {
+                    if (e == loadErr) {
+                        failed.incrementAndGet();
+                    }
+                }
+                done2.countDown();
+            }).start();
+        }
+        done2.await();
+        assert failed.get() == n;
+    }
+
     private void work() {
         for(int i = 0; i < 1000; i++) {
             long uid = random.nextInt();
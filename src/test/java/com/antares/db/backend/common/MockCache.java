@@ -1,17 +1,25 @@
 package com.antares.db.backend.common;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MockCache extends AbstractCache<Long> {
 
+    AtomicInteger loads = new AtomicInteger(0);
+    AtomicInteger evicts = new AtomicInteger(0);
+
     public MockCache() {
         super(50);
     }
 
     @Override
     protected Long getForCache(long key) throws Exception {
+        loads.incrementAndGet();
         return key;
     }
 
     @Override
-    protected void releaseForCache(Long obj) {}
+    protected void releaseForCache(Long obj) {
+        evicts.incrementAndGet();
+    }
     
 }
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -14,9 +15,13 @@ import org.junit.Test;
 
 import com.antares.db.backend.common.SubArray;
 import com.antares.db.backend.dm.dateItem.DataItem;
+import com.antares.db.backend.dm.logger.Logger;
+import com.antares.db.backend.dm.logger.LoggerImpl;
+import com.antares.db.backend.dm.page.PageX;
 import com.antares.db.backend.dm.pageCache.PageCache;
 import com.antares.db.backend.tm.MockTransactionManager;
 import com.antares.db.backend.tm.TransactionManager;
+import com.antares.db.backend.tm.TransactionManagerImpl;
 import com.antares.db.backend.utils.Panic;
 import com.antares.db.backend.utils.RandomUtil;
 
@@ -24,6 +29,8 @@ public class DataManagerTest {
 
     static List<Long> uids0, uids1;
     static Lock uidsLock;
+    // 工作线程中的断言失败和异常，在cdl.await()之后检查
+    static AtomicReference<Throwable> failure;
 
     static Random random = new SecureRandom();
 
@@ -31,6 +38,14 @@ public class DataManagerTest {
         uids0 = new ArrayList<>();
         uids1 = new ArrayList<>();
         uidsLock = new ReentrantLock();
+        failure = new AtomicReference<>();
+    }
+
+    private void checkFailure() {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new AssertionError("worker failed", t);
+        }
     }
 
     private void worker(DataManager dm0, DataManager dm1, int tasksNum, int insertRation, CountDownLatch cdl) {
@@ -103,6 +118,8 @@ public class DataManagerTest {
                     data1.release();
                 }
             }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
         } finally {
             cdl.countDown();
         }
@@ -121,11 +138,13 @@ public class DataManagerTest {
         Runnable r = () -> worker(dm0, mdm, tasksNum, 50, cdl);
         new Thread(r).run();
         cdl.await();
+        checkFailure();
         dm0.close();
         mdm.close();
 
         new File(System.getProperty("user.dir") + "/TESTDMSingle.db").delete();
         new File(System.getProperty("user.dir") + "/TESTDMSingle.log").delete();
+        LoggerImpl.segmentFiles(System.getProperty("user.dir") + "/TESTDMSingle").forEach(File::delete);
     }
 
     @Test
@@ -143,17 +162,19 @@ public class DataManagerTest {
             new Thread(r).start();
         }
         cdl.await();
+        checkFailure();
         dm0.close();
         mdm.close();
 
         new File(System.getProperty("user.dir") + "/TestDMMulti.db").delete();
         new File(System.getProperty("user.dir") + "/TestDMMulti.log").delete();
+        LoggerImpl.segmentFiles(System.getProperty("user.dir") + "/TestDMMulti").forEach(File::delete);
     }
 
     @Test
     public void testRecoverySimple() throws InterruptedException {
         TransactionManager tm0 = TransactionManager.create(System.getProperty("user.dir") + "/TestRecoverySimple");
-        DataManager dm0 = DataManager.create(System.getProperty("user.dir") + "/TestRecoverySimple",
+        DataManagerImpl dm0 = DataManager.create(System.getProperty("user.dir") + "/TestRecoverySimple",
                 PageCache.PAGE_SIZE * 30, tm0);
         DataManager mdm = MockDataManager.newMockDataManager();
         dm0.close();
@@ -170,13 +191,240 @@ public class DataManagerTest {
                 new Thread(r).start();
             }
             cdl.await();
+            checkFailure();
+            // 模拟崩溃：SUPER_XID的修改随下一次刷日志持久化，崩溃前先刷日志；
+            // 崩溃后不再有检查点，否则旧实例的检查点日志会写进新实例的日志
+            dm0.flushLog();
+            dm0.stopCheckpointer();
         }
         dm0.close();
         mdm.close();
 
         new File(System.getProperty("user.dir") + "/TestRecoverySimple.db").delete();
         new File(System.getProperty("user.dir") + "/TestRecoverySimple.log").delete();
+        LoggerImpl.segmentFiles(System.getProperty("user.dir") + "/TestRecoverySimple").forEach(File::delete);
         new File(System.getProperty("user.dir") + "/TestRecoverySimple.xid").delete();
 
     }
+
+    @Test
+    public void testRecoverFromCheckpoint() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestRecoverCheckpoint";
+        TransactionManager tm = TransactionManager.create(path);
+        // 不启动后台检查点线程，检查点由测试显式触发
+        DataManagerImpl dm0 = new DataManagerImpl(PageCache.create(path, PageCache.PAGE_SIZE * 30),
+                Logger.create(path), tm);
+        dm0.initPageOne();
+
+        long committed = tm.begin();
+        long u0 = dm0.insert(committed, "before".getBytes());
+        long active = tm.begin();
+        long u1 = dm0.insert(active, "active".getBytes());
+        dm0.commit(committed, false);
+        dm0.checkpoint();
+
+        long after = tm.begin();
+        long u2 = dm0.insert(after, "after".getBytes());
+        dm0.commit(after, false);
+        // 页面LSN是最后一条修改了该页面的日志的LSN
+        DataItem di = dm0.read(u2);
+        assert PageX.getPageLsn(di.page()) > 0;
+        di.release();
+        dm0.flushLog();
+
+        // 不关闭dm0，模拟崩溃：检查点之后的修改需要redo，检查点时活跃的事务需要undo
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm);
+        assert "before".equals(readString(dm1, u0));
+        assert dm1.read(u1) == null;
+        assert "after".equals(readString(dm1, u2));
+        dm1.close();
+        tm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testDeltaUpdateLog() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestDeltaUpdate";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManagerImpl dm0 = new DataManagerImpl(PageCache.create(path, PageCache.PAGE_SIZE * 30),
+                Logger.create(path), tm);
+        dm0.initPageOne();
+
+        byte[] data = new byte[1000];
+        long uid = dm0.insert(TransactionManagerImpl.SUPER_XID, data);
+
+        // 已提交的事务修改了开头和末尾各几个字节，日志只记录这两段
+        long committed = tm.begin();
+        long start = dm0.logger.end();
+        update(dm0, committed, uid, 0, "head".getBytes());
+        update(dm0, committed, uid, 990, "tail".getBytes());
+        assert dm0.logger.end() - start < 200;
+        dm0.commit(committed, false);
+
+        // 未提交的事务修改了中间的字节，恢复时被撤销
+        long active = tm.begin();
+        update(dm0, active, uid, 500, "middle".getBytes());
+        dm0.flushLog();
+
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm);
+        System.arraycopy("head".getBytes(), 0, data, 0, 4);
+        System.arraycopy("tail".getBytes(), 0, data, 990, 4);
+        assert new String(data).equals(readString(dm1, uid));
+        dm1.close();
+        tm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testLostAsyncCommit() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestLostAsyncCommit";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManagerImpl dm0 = new DataManagerImpl(PageCache.create(path, PageCache.PAGE_SIZE * 30),
+                Logger.create(path), tm);
+        dm0.initPageOne();
+
+        long sync = tm.begin();
+        long u0 = dm0.insert(sync, "sync".getBytes());
+        dm0.commit(sync, false);
+
+        // 异步提交后日志已被后台写入
+        long flushed = tm.begin();
+        long u1 = dm0.insert(flushed, "flushed".getBytes());
+        dm0.commit(flushed, true);
+        dm0.flushLog();
+
+        // XID文件中已提交，但COMMIT日志在崩溃时丢失
+        long lost = tm.begin();
+        long u2 = dm0.insert(lost, "lost".getBytes());
+        dm0.flushLog();
+        tm.commitAsync(lost);
+        tm.flush();
+
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm);
+        assert "sync".equals(readString(dm1, u0));
+        assert "flushed".equals(readString(dm1, u1));
+        assert tm.isCommitted(flushed);
+        assert dm1.read(u2) == null;
+        assert tm.isAborted(lost);
+        dm1.close();
+        tm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testAbortedNotUndone() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestAbortedNotUndone";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManagerImpl dm0 = new DataManagerImpl(PageCache.create(path, PageCache.PAGE_SIZE * 30),
+                Logger.create(path), tm0);
+        dm0.initPageOne();
+        long uid = dm0.insert(TransactionManagerImpl.SUPER_XID, new byte[4]);
+
+        // t1修改后回滚，修改留在原处，t2在其上修改并提交；回滚状态还未写入XID文件
+        long t1 = tm0.begin();
+        update(dm0, t1, uid, 0, "AAAA".getBytes());
+        dm0.abort(t1);
+        long t2 = tm0.begin();
+        update(dm0, t2, uid, 0, "BBBB".getBytes());
+        dm0.commit(t2, false);
+
+        // 每次崩溃后重新打开XID文件，事务的结局只能来自日志
+        TransactionManager tm1 = TransactionManager.open(path);
+        DataManagerImpl dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm1);
+        assert "BBBB".equals(readString(dm1, uid));
+        assert tm1.isAborted(t1) && tm1.isCommitted(t2);
+
+        // t3在崩溃时未提交，被恢复撤销
+        long t3 = tm1.begin();
+        update(dm1, t3, uid, 0, "CCCC".getBytes());
+        dm1.flushLog();
+        dm1.stopCheckpointer();
+
+        TransactionManager tm2 = TransactionManager.open(path);
+        DataManagerImpl dm2 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm2);
+        assert "BBBB".equals(readString(dm2, uid));
+        assert tm2.isAborted(t3);
+
+        // 再次崩溃时不会重复撤销t3，覆盖之后提交的t4
+        long t4 = tm2.begin();
+        update(dm2, t4, uid, 0, "DDDD".getBytes());
+        dm2.commit(t4, false);
+        dm2.stopCheckpointer();
+
+        TransactionManager tm3 = TransactionManager.open(path);
+        DataManager dm3 = DataManager.open(path, PageCache.PAGE_SIZE * 30, tm3);
+        assert "DDDD".equals(readString(dm3, uid));
+        dm3.close();
+        tm3.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testOneSyncPerCommit() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestOneSyncPerCommit";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManagerImpl dm0 = new DataManagerImpl(PageCache.create(path, PageCache.PAGE_SIZE * 30),
+                Logger.create(path), tm);
+        dm0.initPageOne();
+        LoggerImpl lg = (LoggerImpl) dm0.logger;
+        // 停止后台刷日志，fsync只来自提交
+        lg.stopFlusher();
+        long index = dm0.insert(TransactionManagerImpl.SUPER_XID, new byte[100]);
+        dm0.flushLog();
+
+        // 记录、索引节点的修改都不等待持久化，提交时一次fsync
+        long syncs = lg.getSyncCount();
+        long xid = tm.begin();
+        dm0.insert(xid, "row".getBytes());
+        update(dm0, TransactionManagerImpl.SUPER_XID, index, 0, "key".getBytes());
+        dm0.commit(xid, false);
+        assert lg.getSyncCount() - syncs == 1;
+
+        // 只读事务提交不需要持久化任何东西
+        syncs = lg.getSyncCount();
+        long ro = tm.begin();
+        dm0.read(index).release();
+        dm0.commit(ro, false);
+        assert lg.getSyncCount() == syncs;
+
+        dm0.close();
+        tm.close();
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    private static void update(DataManager dm, long xid, long uid, int offset, byte[] bytes) throws Exception {
+        DataItem di = dm.read(uid);
+        di.before();
+        SubArray data = di.data();
+        System.arraycopy(bytes, 0, data.raw, data.start + offset, bytes.length);
+        di.after(xid);
+        di.release();
+    }
+
+    private static String readString(DataManager dm, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        SubArray data = di.data();
+        String s = new String(Arrays.copyOfRange(data.raw, data.start, data.end));
+        di.release();
+        return s;
+    }
 }
@@ -52,6 +52,23 @@ public class MockDataManager implements DataManager {
         }
     }
 
+    @Override
+    public void readAhead(long uid) {}
+
+    @Override
+    public void commit(long xid, boolean async) {}
+
+    @Override
+    public void abort(long xid) {}
+
+    @Override
+    public void flushLog() {}
+
+    @Override
+    public String walStatus() {
+        return "";
+    }
+
     @Override
     public void close() {}
     
@@ -0,0 +1,167 @@
+package com.antares.db.backend.dm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.antares.db.backend.common.SubArray;
+import com.antares.db.backend.dm.dateItem.DataItem;
+import com.antares.db.backend.dm.logger.Logger;
+import com.antares.db.backend.dm.logger.LoggerImpl;
+import com.antares.db.backend.dm.pageCache.PageCache;
+import com.antares.db.backend.dm.pageCache.PageCacheImpl;
+import com.antares.db.backend.tm.TransactionManager;
+
+/**
+ * 崩溃恢复耗时：单遍按页分区并行恢复(recover)
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *      -Dexec.args="-cp %classpath com.antares.db.backend.dm.RecoverBenchmark"
+ * 先用多个线程随机更新DataItem，生成约logMegabytes的日志后不关闭数据库(模拟崩溃)，
+ * 每次恢复前把数据库文件还原为崩溃时的状态；在类名后加 -p logMegabytes=64 可以快速试跑
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RecoverBenchmark {
+    // 生成日志的线程数，组提交让一次fsync覆盖多个线程的日志
+    private static final int LOAD_THREADS = 16;
+    // 每个事务的更新次数
+    private static final int UPDATES_PER_XID = 1000;
+
+    // 日志大小，默认1GB
+    @Param({ "1024" })
+    int logMegabytes;
+
+    @Param({ "10000" })
+    int items;
+
+    @Param({ "400" })
+    int itemSize;
+
+    @Param({ "256" })
+    int cachePages;
+
+    String path;
+    TransactionManager tm;
+    PageCache pc;
+    Logger lg;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        path = System.getProperty("java.io.tmpdir") + "/recover_bench_" + System.nanoTime();
+        tm = TransactionManager.create(path);
+        // 不启动后台检查点，保留全部日志
+        DataManagerImpl dm = new DataManagerImpl(PageCache.create(path, (long) cachePages * PageCache.PAGE_SIZE),
+                Logger.create(path), tm);
+        dm.initPageOne();
+
+        long xid = tm.begin();
+        long[] uids = new long[items];
+        for (int i = 0; i < items; i++) {
+            uids[i] = dm.insert(xid, new byte[itemSize]);
+        }
+        dm.commit(xid, false);
+
+        long target = (long) logMegabytes << 20;
+        CountDownLatch cdl = new CountDownLatch(LOAD_THREADS);
+        for (int t = 0; t < LOAD_THREADS; t++) {
+            new Thread(() -> {
+                try {
+                    while (true) {
+                        long x = tm.begin();
+                        for (int i = 0; i < UPDATES_PER_XID; i++) {
+                            update(dm, x, uids[ThreadLocalRandom.current().nextInt(items)]);
+                        }
+                        // 每个线程的最后一个事务保持活跃，恢复时需要undo
+                        if (dm.logger.end() >= target) {
+                            break;
+                        }
+                        dm.commit(x, false);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    cdl.countDown();
+                }
+            }).start();
+        }
+        cdl.await();
+        dm.flushLog();
+
+        // 不关闭dm，缓存中的脏页丢失，磁盘上是崩溃时的数据库文件
+        Files.copy(new File(path + PageCacheImpl.DB_SUFFIX).toPath(), new File(path + ".crashed").toPath());
+    }
+
+    private static void update(DataManager dm, long xid, long uid) throws Exception {
+        DataItem di = dm.read(uid);
+        di.before();
+        SubArray data = di.data();
+        byte[] bytes = new byte[data.end - data.start];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        System.arraycopy(bytes, 0, data.raw, data.start, bytes.length);
+        di.after(xid);
+        di.release();
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() throws Exception {
+        Files.copy(new File(path + ".crashed").toPath(), new File(path + PageCacheImpl.DB_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        pc = PageCache.open(path, (long) cachePages * PageCache.PAGE_SIZE);
+        lg = Logger.open(path);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRecovered() {
+        lg.close();
+        pc.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tm.close();
+        new File(path + PageCacheImpl.DB_SUFFIX).delete();
+        new File(path + ".crashed").delete();
+        new File(path + ".xid").delete();
+        new File(path + LoggerImpl.LOG_SUFFIX).delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Benchmark
+    public void pipelined() {
+        Recover.recover(tm, lg, pc);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RecoverBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,111 @@
+package com.antares.db.backend.dm.logger;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 日志顺序扫描的耗时
+ * open：打开日志(校验全部日志并截掉bad tail)，对应启动
+ * replay：打开日志后再从头读出全部日志，对应恢复时的日志读取
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *      -Dexec.args="-cp %classpath com.antares.db.backend.dm.logger.LoggerBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoggerBenchmark {
+    // 生成日志的线程数，组提交让一次fsync覆盖多个线程的日志
+    private static final int LOAD_THREADS = 16;
+
+    // 日志大小
+    @Param({ "256" })
+    int logMegabytes;
+
+    // 每条日志的数据长度，接近一条小更新日志
+    @Param({ "64" })
+    int recordSize;
+
+    String path;
+    Logger lg;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        path = System.getProperty("java.io.tmpdir") + "/logger_bench_" + System.nanoTime();
+        Logger init = Logger.create(path);
+        long target = (long) logMegabytes << 20;
+        CountDownLatch cdl = new CountDownLatch(LOAD_THREADS);
+        for (int t = 0; t < LOAD_THREADS; t++) {
+            new Thread(() -> {
+                byte[] data = new byte[recordSize];
+                while (init.end() < target) {
+                    init.log(data);
+                }
+                cdl.countDown();
+            }).start();
+        }
+        cdl.await();
+        init.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeLogger() {
+        if (lg != null) {
+            lg.close();
+            lg = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(path + LoggerImpl.LOG_SUFFIX).delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Benchmark
+    public void open() {
+        lg = Logger.open(path);
+    }
+
+    @Benchmark
+    public long replay() {
+        lg = Logger.open(path);
+        lg.rewind();
+        long n = 0;
+        byte[] log;
+        while ((log = lg.next()) != null) {
+            n += log.length;
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(LoggerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
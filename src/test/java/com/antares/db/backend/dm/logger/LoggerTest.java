@@ -1,6 +1,8 @@
 package com.antares.db.backend.dm.logger;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -44,5 +46,138 @@ public class LoggerTest {
         lg.close();
 
         assert new File(System.getProperty("user.dir") + "/logger_test.log").delete();
+        deleteSegments(System.getProperty("user.dir") + "/logger_test");
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        String path = System.getProperty("user.dir") + "/logger_group_test";
+        Logger lg = Logger.create(path);
+        int threads = 8, perThread = 200;
+        CountDownLatch cdl = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    lg.log((id + ":" + i).getBytes());
+                }
+                cdl.countDown();
+            }).start();
+        }
+        cdl.await();
+        lg.close();
+
+        // 每个线程的日志都完整且保持各自的顺序
+        Logger lg2 = Logger.open(path);
+        lg2.rewind();
+        int[] next = new int[threads];
+        int total = 0;
+        byte[] log;
+        while ((log = lg2.next()) != null) {
+            String[] parts = new String(log).split(":");
+            int id = Integer.parseInt(parts[0]);
+            assert Integer.parseInt(parts[1]) == next[id];
+            next[id]++;
+            total++;
+        }
+        assert total == threads * perThread;
+        lg2.close();
+
+        assert new File(path + ".log").delete();
+        deleteSegments(path);
+    }
+
+    @Test
+    public void testBadTail() throws Exception {
+        String path = System.getProperty("user.dir") + "/logger_tail_test";
+        Logger lg = Logger.create(path);
+        long lsn0 = lg.log("aaa".getBytes());
+        long lsn1 = lg.log("bbb".getBytes());
+        long lsn2 = lg.log("ccc".getBytes());
+        assert lsn0 == 0 && lsn1 > lsn0 && lsn2 > lsn1;
+        lg.close();
+
+        // 破坏最后一条日志的数据，它和其后追加的垃圾数据都被截掉
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".log.0", "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+            raf.seek(raf.length());
+            raf.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 });
+        }
+        lg = Logger.open(path);
+        assert lg.end() == lsn2;
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert lg.next() == null;
+
+        // 继续追加的日志从截断处开始
+        assert lg.log("ddd".getBytes()) == lsn2;
+        lg.close();
+        lg = Logger.open(path);
+        lg.rewind();
+        lg.next();
+        lg.next();
+        assert "ddd".equals(new String(lg.next()));
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        deleteSegments(path);
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        String path = System.getProperty("user.dir") + "/logger_segment_test";
+        long segmentSize = LoggerImpl.MIN_SEGMENT_SIZE;
+        Logger lg = Logger.create(path, segmentSize);
+        // 每条日志1000字节，段尾放不下的日志从下一段开头写入
+        byte[] data = new byte[1000 - 16];
+        int n = 300;
+        long[] lsns = new long[n];
+        for (int i = 0; i < n; i++) {
+            data[0] = (byte) i;
+            lsns[i] = lg.log(data);
+            assert lsns[i] / segmentSize == (lsns[i] + 999) / segmentSize;
+        }
+        assert LoggerImpl.segmentFiles(path).size() == 5;
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        for (int i = 0; i < n; i++) {
+            byte[] log = lg.next();
+            assert log != null && log[0] == (byte) i;
+        }
+        assert lg.next() == null;
+
+        // 回收第150条日志之前的日志段，之后的日志仍然可读
+        lg.purge(lsns[150]);
+        assert lg.begin() == lsns[150] / segmentSize * segmentSize;
+        assert LoggerImpl.segmentFiles(path).size() == 3;
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        int i = 0;
+        while (lsns[i] < lg.begin()) {
+            i++;
+        }
+        byte[] log;
+        while ((log = lg.next()) != null) {
+            assert log[0] == (byte) i;
+            i++;
+        }
+        assert i == n;
+        assert lg.log(data) == lsns[n - 1] + 1000;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        deleteSegments(path);
+    }
+
+    private static void deleteSegments(String path) {
+        for (File f : LoggerImpl.segmentFiles(path)) {
+            assert f.delete();
+        }
     }
 }
@@ -37,6 +37,12 @@ public class MockPage implements Page {
         return false;
     }
 
+    @Override
+    public void beginUpdate() {}
+
+    @Override
+    public void endUpdate() {}
+
     @Override
     public int getPageNumber() {
         return pgno;
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
 
 import com.antares.db.backend.dm.page.MockPage;
 import com.antares.db.backend.dm.page.Page;
@@ -42,6 +43,9 @@ public class MockPageCache implements PageCache {
     @Override
     public void close() {}
 
+    @Override
+    public void setLogFlusher(LongConsumer logFlusher) {}
+
     @Override
     public void release(Page page) {}
 
@@ -55,5 +59,13 @@ public class MockPageCache implements PageCache {
 
     @Override
     public void flushPage(Page pg) {}
+
+    @Override
+    public void readAhead(int pgno) {}
+
+    @Override
+    public boolean flushDirtyPages() {
+        return true;
+    }
     
 }
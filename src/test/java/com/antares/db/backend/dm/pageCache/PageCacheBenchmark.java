@@ -0,0 +1,90 @@
+package com.antares.db.backend.dm.pageCache;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.antares.db.backend.dm.page.Page;
+
+/**
+ * 数据库远大于缓存时的并发随机读页(绝大多数为未命中)
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *      -Dexec.args="-cp %classpath com.antares.db.backend.dm.pageCache.PageCacheBenchmark"
+ * 依次以1, 2, 4, ... 直至CPU核数的线程运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PageCacheBenchmark {
+
+    // 数据库页数，默认256MB
+    @Param({ "32768" })
+    int pages;
+
+    // 缓存页数
+    @Param({ "1024" })
+    int cachePages;
+
+    String path;
+    PageCache pc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        path = System.getProperty("java.io.tmpdir") + "/pcache_bench_" + System.nanoTime();
+        PageCache init = PageCache.create(path, (long) cachePages * PageCache.PAGE_SIZE);
+        byte[] data = new byte[PageCache.PAGE_SIZE];
+        for (int i = 0; i < pages; i++) {
+            data[0] = (byte) i;
+            init.newPage(data);
+        }
+        init.close();
+        pc = PageCache.open(path, (long) cachePages * PageCache.PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pc.close();
+        new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
+    @Benchmark
+    public byte coldRead() throws Exception {
+        int pgno = ThreadLocalRandom.current().nextInt(pages) + 1;
+        Page pg = pc.getPage(pgno);
+        byte b = pg.getData()[0];
+        pg.release();
+        return b;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            Options opt = new OptionsBuilder()
+                    .include(PageCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.antares.db.backend.dm.pageCache;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -41,9 +43,190 @@ public class PageCacheTest {
         }
         pc.close();
 
+        // 所有页框都被引用时，新页面不等待空闲页框，直接写入文件
+        pc = PageCache.open(System.getProperty("user.dir") + "/pcacher_simple_test0", PageCache.PAGE_SIZE * 50);
+        Page[] pinned = new Page[50];
+        for (int i = 0; i < 50; i++) {
+            pinned[i] = pc.getPage(i + 1);
+        }
+        byte[] tmp = new byte[PageCache.PAGE_SIZE];
+        tmp[0] = (byte) 101;
+        long start = System.currentTimeMillis();
+        int pgno = pc.newPage(tmp);
+        assert System.currentTimeMillis() - start < 1000;
+        for (Page pg : pinned) {
+            pg.release();
+        }
+        Page pg = pc.getPage(pgno);
+        assert pgno == 101 && pg.getData()[0] == (byte) 101;
+        pg.release();
+        pc.close();
+
         assert new File(System.getProperty("user.dir") + "/pcacher_simple_test0.db").delete();
     }
 
+    @Test
+    public void testMappedPageCache() throws Exception {
+        String path = System.getProperty("user.dir") + "/pcacher_mmap_test0";
+        PageCache pc = PageCache.create(path, PageCache.PAGE_SIZE * 50, true);
+        for (int i = 0; i < 100; i++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte) i;
+            int pgno = pc.newPage(tmp);
+            Page pg = pc.getPage(pgno);
+            pg.getData()[1] = (byte) i;
+            pg.setDirty(true);
+            pg.release();
+        }
+        pc.close();
+        // 关闭时文件被截断到实际页数
+        assert new File(path + ".db").length() == 100L * PageCache.PAGE_SIZE;
+
+        pc = PageCache.open(path, PageCache.PAGE_SIZE * 50, true);
+        assert pc.getPageNumber() == 100;
+        for (int i = 1; i <= 100; i++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte) i - 1;
+            assert pg.getData()[1] == (byte) i - 1;
+            pg.release();
+        }
+        pc.close();
+
+        assert new File(path + ".db").delete();
+    }
+
+    @Test
+    public void testFlushDirtyPages() throws Exception {
+        String path = System.getProperty("user.dir") + "/pcacher_flush_test0";
+        PageCache pc = PageCache.create(path, PageCache.PAGE_SIZE * 50);
+        for (int i = 0; i < 20; i++) {
+            int pgno = pc.newPage(new byte[PageCache.PAGE_SIZE]);
+            Page pg = pc.getPage(pgno);
+            pg.getData()[0] = (byte) pgno;
+            pg.setDirty(true);
+            pg.release();
+        }
+
+        // 正在被原地修改的页面不会被写回
+        Page updating = pc.getPage(5);
+        updating.beginUpdate();
+        assert !pc.flushDirtyPages();
+        assert updating.isDirty();
+        for (int i = 1; i <= 20; i++) {
+            Page pg = pc.getPage(i);
+            assert pg.isDirty() == (i == 5);
+            pg.release();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".db", "r")) {
+            raf.seek(2L * PageCache.PAGE_SIZE);
+            assert raf.read() == 3;
+            raf.seek(4L * PageCache.PAGE_SIZE);
+            assert raf.read() == 0;
+        }
+
+        updating.endUpdate();
+        updating.release();
+        assert pc.flushDirtyPages();
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".db", "r")) {
+            raf.seek(4L * PageCache.PAGE_SIZE);
+            assert raf.read() == 5;
+        }
+        pc.close();
+
+        assert new File(path + ".db").delete();
+    }
+
+    @Test
+    public void testCoalescedWrites() throws Exception {
+        String path = System.getProperty("user.dir") + "/pcacher_coalesce_test0";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 200);
+        for (int i = 0; i < 128; i++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte) i;
+            pc.newPage(tmp);
+        }
+        // 128个连续的新页面按每批64页合并写入
+        assert pc.getPagesWritten() == 0;
+        assert pc.flushDirtyPages();
+        assert pc.getPagesWritten() == 128;
+        assert pc.getWriteCalls() <= 4;
+        pc.close();
+
+        PageCache check = PageCache.open(path, PageCache.PAGE_SIZE * 50);
+        assert check.getPageNumber() == 128;
+        for (int i = 1; i <= 128; i++) {
+            Page pg = check.getPage(i);
+            assert pg.getData()[0] == (byte) (i - 1);
+            pg.release();
+        }
+        check.close();
+
+        assert new File(path + ".db").delete();
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        String path = System.getProperty("user.dir") + "/pcacher_readahead_test0";
+        PageCache pc = PageCache.create(path, PageCache.PAGE_SIZE * 200);
+        for (int i = 0; i < 100; i++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte) i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        // 顺序访问触发预读
+        PageCacheImpl pci = (PageCacheImpl) PageCache.open(path, PageCache.PAGE_SIZE * 200);
+        for (int i = 1; i <= 3; i++) {
+            pci.getPage(i).release();
+        }
+        waitPrefetched(pci, 1);
+
+        // 显式提示
+        long before = pci.getPagesPrefetched();
+        pci.readAhead(80);
+        waitPrefetched(pci, before + 1);
+        for (int i = 1; i <= 100; i++) {
+            Page pg = pci.getPage(i);
+            assert pg.getData()[0] == (byte) (i - 1);
+            pg.release();
+        }
+        pci.close();
+
+        // 两个线程严格交替的顺序扫描，各自触发一个32页的预读窗口
+        PageCacheImpl pci2 = (PageCacheImpl) PageCache.open(path, PageCache.PAGE_SIZE * 200);
+        Semaphore turnA = new Semaphore(1), turnB = new Semaphore(0);
+        Thread a = new Thread(() -> scan(pci2, 1, turnA, turnB));
+        Thread b = new Thread(() -> scan(pci2, 60, turnB, turnA));
+        a.start();
+        b.start();
+        a.join();
+        b.join();
+        waitPrefetched(pci2, 33);
+        pci2.close();
+
+        assert new File(path + ".db").delete();
+    }
+
+    private void scan(PageCache pc, int first, Semaphore mine, Semaphore other) {
+        try {
+            for (int i = 0; i < 3; i++) {
+                mine.acquire();
+                pc.getPage(first + i).release();
+                other.release();
+            }
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void waitPrefetched(PageCacheImpl pc, long n) throws InterruptedException {
+        for (int i = 0; i < 100 && pc.getPagesPrefetched() < n; i++) {
+            Thread.sleep(20);
+        }
+        assert pc.getPagesPrefetched() >= n;
+    }
+
     private PageCache pc1;
     private CountDownLatch cdl1;
     private AtomicInteger noPages1;
@@ -6,6 +6,7 @@ import java.util.List;
 import org.junit.Test;
 
 import com.antares.db.backend.dm.DataManager;
+import com.antares.db.backend.dm.logger.LoggerImpl;
 import com.antares.db.backend.dm.pageCache.PageCache;
 import com.antares.db.backend.tm.MockTransactionManager;
 import com.antares.db.backend.tm.TransactionManager;
@@ -33,5 +34,8 @@ public class BPlusTreeTest {
 
         assert new File(System.getProperty("user.dir") + "/TestTreeSingle.db").delete();
         assert new File(System.getProperty("user.dir") + "/TestTreeSingle.log").delete();
+        for (File f : LoggerImpl.segmentFiles(System.getProperty("user.dir") + "/TestTreeSingle")) {
+            assert f.delete();
+        }
     }
 }
@@ -44,6 +44,28 @@ public class ParserTest {
         res = Parser.Parse(stat.getBytes());
         begin = (Begin)res;
         assert begin.isRepeatableRead;
+        assert !begin.isAsync;
+
+        stat = "begin async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isAsync;
+
+        stat = "begin isolation level repeatable read async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isRepeatableRead && begin.isAsync;
+        assert !begin.isReadOnly;
+
+        stat = "begin read only";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isReadOnly && !begin.isRepeatableRead;
+
+        stat = "begin isolation level repeatable read read only";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isRepeatableRead && begin.isReadOnly;
     }
 
     @Test
@@ -90,6 +112,9 @@ public class ParserTest {
         System.out.println("Show");
         System.out.println(gson.toJson(show));
         System.out.println("======================");
+
+        show = (Show) Parser.Parse("show log".getBytes());
+        assert show.log;
     }
 
     @Test
@@ -8,7 +8,7 @@ public class MockTransactionManager implements TransactionManager {
     }
 
     @Override
-    public void commit(long xid) {}
+    public void commitAsync(long xid) {}
 
     @Override
     public void abort(long xid) {}
@@ -28,6 +28,14 @@ public class MockTransactionManager implements TransactionManager {
         return false;
     }
 
+    @Override
+    public long lastXid() {
+        return 0;
+    }
+
+    @Override
+    public void flush() {}
+
     @Override
     public void close() {}
     
@@ -41,6 +41,50 @@ public class TransactionManagerTest {
         assert new File(filePath + ".xid").delete();
     }
 
+    @Test
+    public void testReopen() {
+        String filePath = System.getProperty("user.dir") + "/tranmger_reopen_test";
+        TransactionManager tm = TransactionManager.create(filePath);
+        long committed = tm.begin();
+        long aborted = tm.begin();
+        long active = tm.begin();
+        tm.commitAsync(committed);
+        tm.abort(aborted);
+        // 批量写入的状态在close时持久化
+        tm.close();
+
+        tm = TransactionManager.open(filePath);
+        assert tm.isCommitted(committed);
+        assert tm.isAborted(aborted);
+        assert tm.isActive(active);
+        tm.close();
+        assert new File(filePath + ".xid").delete();
+
+        // 跨页的状态互不影响
+        StatusTable table = new StatusTable();
+        table.set(StatusTable.PAGE_XIDS + 3, (byte) 2);
+        table.set(33, (byte) 1);
+        assert table.get(StatusTable.PAGE_XIDS + 3) == 2;
+        assert table.get(33) == 1;
+        assert table.get(32) == 0 && table.get(34) == 0;
+        assert table.get(4L * StatusTable.PAGE_XIDS) == 0;
+    }
+
+    @Test
+    public void testReserveAfterCrash() {
+        String filePath = System.getProperty("user.dir") + "/tranmger_reserve_test";
+        TransactionManager tm0 = TransactionManager.create(filePath);
+        long xid = tm0.begin();
+        tm0.begin();
+
+        // 不关闭tm0，模拟崩溃：从文件头中的预留上限之后继续分配，跳过预留而未使用的xid
+        TransactionManager tm1 = TransactionManager.open(filePath);
+        assert tm1.begin() == xid + TransactionManagerImpl.XID_RESERVE + 1;
+        tm1.close();
+        tm0.close();
+        assert new File(filePath + ".xid").delete();
+    }
+
     private void worker() {
         boolean inTrans = false;
         long transXID = 0;
@@ -58,7 +102,7 @@ public class TransactionManagerTest {
                     int status = (random.nextInt(Integer.MAX_VALUE) % 2) + 1;
                     switch(status) {
                         case 1:
-                            tmger.commit(transXID);
+                            tmger.commitAsync(transXID);
                             break;
                         case 2:
                             tmger.abort(transXID);
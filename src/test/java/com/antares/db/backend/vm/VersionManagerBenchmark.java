@@ -0,0 +1,126 @@
+package com.antares.db.backend.vm;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.antares.db.backend.dm.DataManager;
+import com.antares.db.backend.dm.logger.LoggerImpl;
+import com.antares.db.backend.dm.pageCache.PageCache;
+import com.antares.db.backend.tm.TransactionManager;
+
+/**
+ * VersionManager.read的多线程吞吐
+ *
+ * 运行：mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *      -Dexec.args="-cp %classpath com.antares.db.backend.vm.VersionManagerBenchmark"
+ * 依次以1, 2, 4, ... 32个线程运行，每个线程持有一个事务随机读取已提交的记录；
+ * 另有activeXids个未提交的事务，使可重复读的快照不为空。
+ * handle直接传入事务对象，byXid每次先在活跃事务表中查找
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class VersionManagerBenchmark {
+    private static final int MAX_THREADS = 32;
+
+    @Param({ "10000" })
+    int items;
+
+    @Param({ "1" })
+    int level;
+
+    @Param({ "64" })
+    int activeXids;
+
+    String path;
+    TransactionManager tm;
+    DataManager dm;
+    VersionManager vm;
+    long[] uids;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        path = System.getProperty("java.io.tmpdir") + "/vm_bench_" + System.nanoTime();
+        tm = TransactionManager.create(path);
+        dm = DataManager.create(path, PageCache.PAGE_SIZE * 1000, tm);
+        vm = new VersionManagerImpl(tm, dm);
+
+        Transaction t = vm.begin(0, false);
+        uids = new long[items];
+        for (int i = 0; i < items; i++) {
+            uids[i] = vm.insert(t, new byte[100]);
+        }
+        vm.commit(t);
+        for (int i = 0; i < activeXids; i++) {
+            vm.begin(0, false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        new File(path + ".xid").delete();
+        new File(path + LoggerImpl.LOG_SUFFIX).delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        Transaction t;
+
+        @Setup(Level.Trial)
+        public void begin(VersionManagerBenchmark bench) {
+            t = bench.vm.beginReadOnly(bench.level);
+        }
+
+        @TearDown(Level.Trial)
+        public void commit(VersionManagerBenchmark bench) throws Exception {
+            bench.vm.commit(t);
+        }
+    }
+
+    @Benchmark
+    public byte[] handle(Session s) throws Exception {
+        return vm.read(s.t, uids[ThreadLocalRandom.current().nextInt(items)]);
+    }
+
+    @Benchmark
+    public byte[] byXid(Session s) throws Exception {
+        return vm.read(s.t.xid, uids[ThreadLocalRandom.current().nextInt(items)]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            Options opt = new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include(VersionManagerBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.antares.db.backend.vm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Test;
+
+import com.antares.db.backend.dm.DataManager;
+import com.antares.db.backend.dm.dateItem.DataItem;
+import com.antares.db.backend.dm.logger.LoggerImpl;
+import com.antares.db.backend.dm.pageCache.PageCache;
+import com.antares.db.backend.tm.TransactionManager;
+import com.antares.db.common.Error;
+
+public class VersionManagerTest {
+    @Test
+    public void testReadOnly() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestVMReadOnly";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE * 30, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+
+        Transaction x1 = vm.begin(0, false);
+        long u1 = vm.insert(x1, "first".getBytes());
+        vm.commit(x1);
+
+        long lastXid = tm.lastXid();
+        Transaction rc = vm.beginReadOnly(0);
+        Transaction rr = vm.beginReadOnly(1);
+        // 只读事务不在TM中分配xid
+        assert rc.xid < 0 && rr.xid < 0 && rc.xid != rr.xid;
+        assert tm.lastXid() == lastXid;
+
+        Transaction x2 = vm.begin(0, false);
+        long u2 = vm.insert(x2, "second".getBytes());
+        vm.commit(x2);
+
+        // 读已提交能看到x2，可重复读只能看到开始前已提交的x1
+        assert "first".equals(new String(vm.read(rc, u1)));
+        assert "first".equals(new String(vm.read(rc.xid, u1)));
+        assert "second".equals(new String(vm.read(rc, u2)));
+        assert "first".equals(new String(vm.read(rr, u1)));
+        assert vm.read(rr, u2) == null;
+
+        try {
+            vm.insert(rr, "third".getBytes());
+            assert false;
+        } catch (Exception e) {
+            assert e == Error.ReadOnlyTransactionException;
+        }
+        try {
+            vm.delete(rc, u1);
+            assert false;
+        } catch (Exception e) {
+            assert e == Error.ReadOnlyTransactionException;
+        }
+
+        vm.commit(rc);
+        vm.abort(rr);
+        assert tm.lastXid() == x2.xid;
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testSnapshot() {
+        ActiveXids active = new ActiveXids(2);
+        active.begin(3);
+        active.begin(4);
+        Snapshot before = active.begin(5);
+        Snapshot s = active.end(4);
+        assert s.xmin == 3 && s.xmax == 6;
+        assert !s.isRunning(0) && !s.isRunning(2) && !s.isRunning(4);
+        assert s.isRunning(3) && s.isRunning(5) && s.isRunning(6);
+
+        // 事务自己的快照以自己的xid为上界
+        Snapshot own = s.until(6);
+        assert own.isRunning(5) && own.isRunning(6);
+        assert new ActiveXids(9).snapshot().xmin == 10;
+
+        // 之后结束的事务不影响已有的快照，数组写满整理之后也一样
+        active.end(3);
+        for (long xid = 6; xid < 200; xid++) {
+            active.begin(xid);
+            active.end(xid);
+        }
+        Snapshot last = active.begin(200);
+        assert before.isRunning(3) && before.isRunning(4) && s.isRunning(3);
+        assert last.xmin == 5 && last.xmax == 201;
+        assert !last.isRunning(3) && !last.isRunning(100) && last.isRunning(5) && last.isRunning(200);
+    }
+
+    @Test
+    public void testRepeatableRead() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestVMRepeatableRead";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE * 30, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm);
+
+        Transaction x0 = vm.begin(0, false);
+        long u0 = vm.insert(x0, "zero".getBytes());
+        vm.commit(x0);
+
+        Transaction x1 = vm.begin(0, false);
+        Transaction rr = vm.begin(1, false);
+        Transaction ro = vm.beginReadOnly(1);
+        long u1 = vm.insert(x1, "one".getBytes());
+        assert vm.delete(x1, u0);
+        vm.commit(x1);
+
+        // x1在rr和ro开始时还活跃，它的插入和删除都不可见
+        assert "zero".equals(new String(vm.read(rr, u0)));
+        assert vm.read(rr, u1) == null;
+        assert "zero".equals(new String(vm.read(ro, u0)));
+        assert vm.read(ro, u1) == null;
+        vm.commit(rr);
+        vm.commit(ro);
+
+        Transaction after = vm.beginReadOnly(1);
+        assert vm.read(after, u0) == null;
+        assert "one".equals(new String(vm.read(after, u1)));
+        vm.commit(after);
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".xid").delete();
+        LoggerImpl.segmentFiles(path).forEach(File::delete);
+    }
+
+    @Test
+    public void testCommitBeforeUnlock() throws Exception {
+        String path = System.getProperty("user.dir") + "/TestVMCommitOrder";
+        String crashed = System.getProperty("user.dir") + "/TestVMCommitOrderCrashed";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE * 30, tm);
+        VersionManagerImpl[] vm = new VersionManagerImpl[1];
+        Transaction[] t2 = new Transaction[1];
+        long[] uid = new long[1];
+
+        // t1异步提交，写入COMMIT日志时拍下磁盘上的文件作为崩溃现场，此时t1的COMMIT日志还没有持久化
+        // 如果t1的锁已经释放，t2能立刻删除同一条记录并同步提交
+        DataManager hooked = new DataManager() {
+            public DataItem read(long u) throws Exception { return dm.read(u); }
+            public long insert(long xid, byte[] data) throws Exception { return dm.insert(xid, data); }
+            public void readAhead(long u) { dm.readAhead(u); }
+            public void abort(long xid) { dm.abort(xid); }
+            public void flushLog() { dm.flushLog(); }
+            public String walStatus() { return dm.walStatus(); }
+            public void close() { dm.close(); }
+
+            public void commit(long xid, boolean async) {
+                if (t2[0] != null && xid != t2[0].xid) {
+                    try {
+                        if (vm[0].lt.add(t2[0].xid, uid[0]) == null) {
+                            assert vm[0].delete(t2[0], uid[0]);
+                            vm[0].commit(t2[0]);
+                        }
+                        copyFiles(path, crashed);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                dm.commit(xid, async);
+            }
+        };
+        vm[0] = new VersionManagerImpl(tm, hooked);
+
+        Transaction x0 = vm[0].begin(0, false);
+        uid[0] = vm[0].insert(x0, "row".getBytes());
+        vm[0].commit(x0);
+
+        Transaction t1 = vm[0].begin(0, true);
+        assert vm[0].delete(t1, uid[0]);
+        t2[0] = vm[0].begin(0, false);
+        vm[0].commit(t1);
+        // t2等到t1提交之后才拿到锁，记录已被删除
+        assert !vm[0].delete(t2[0], uid[0]);
+        vm[0].commit(t2[0]);
+        dm.close();
+        tm.close();
+
+        // 崩溃现场中t1没有结局而被撤销，已提交的t2的修改不能随之丢失
+        TransactionManager tm1 = TransactionManager.open(crashed);
+        DataManager dm1 = DataManager.open(crashed, PageCache.PAGE_SIZE * 30, tm1);
+        VersionManager vm1 = new VersionManagerImpl(tm1, dm1);
+        Transaction r = vm1.beginReadOnly(0);
+        byte[] row = vm1.read(r, uid[0]);
+        vm1.commit(r);
+        assert !tm1.isCommitted(t1.xid);
+        assert tm1.isCommitted(t2[0].xid) ? row == null : "row".equals(new String(row));
+        dm1.close();
+        tm1.close();
+
+        for (String p : new String[] { path, crashed }) {
+            new File(p + ".db").delete();
+            new File(p + ".log").delete();
+            new File(p + ".xid").delete();
+            LoggerImpl.segmentFiles(p).forEach(File::delete);
+        }
+    }
+
+    private static void copyFiles(String from, String to) throws Exception {
+        for (String suffix : new String[] { ".db", ".xid", LoggerImpl.LOG_SUFFIX }) {
+            Files.copy(new File(from + suffix).toPath(), new File(to + suffix).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (File f : LoggerImpl.segmentFiles(from)) {
+            Files.copy(f.toPath(), new File(to + f.getName().substring(new File(from).getName().length())).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}